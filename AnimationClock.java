@@ -0,0 +1,152 @@
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single frame clock for every animation in the visualizer. Animations are
+ * independent objects interpolated from elapsed time, so several can run at
+ * once and a late tick never skips or repeats a step. The underlying Swing
+ * timer only runs while something is animating. A manual clock has no timer
+ * and only moves when tick() is called, e.g. to render frames offscreen.
+ */
+public class AnimationClock {
+    /** A time-based animation; progress runs from 0 to 1 over its duration. */
+    public abstract static class Animation {
+        private long startNanos;
+        private long durationNanos;
+        private boolean cancelled = false;
+
+        protected Animation(long durationMillis) {
+            this.durationNanos = Math.max(1, durationMillis) * 1_000_000L;
+        }
+
+        /** Called on every frame while running, and once more with progress 1. */
+        protected abstract void update(float progress);
+
+        /** Called once after the final update, or after cancel(). */
+        protected void finished() {
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final List<Animation> animations = new ArrayList<>();
+    private final List<Animation> finished = new ArrayList<>();
+    private final Timer timer;
+    private int frameDelay;
+    // Time of the last tick of a manual clock
+    private long manualNanos = 0;
+    // Smoothed interval between timer ticks, for comparing against the requested delay
+    private long lastTickNanos = 0;
+    private long averageIntervalNanos = 0;
+
+    public AnimationClock(int frameDelay) {
+        this(frameDelay, false);
+    }
+
+    private AnimationClock(int frameDelay, boolean manual) {
+        this.frameDelay = frameDelay;
+        if (manual) {
+            timer = null;
+            return;
+        }
+        timer = new Timer(frameDelay, e -> {
+            long now = System.nanoTime();
+            if (lastTickNanos != 0) {
+                long interval = now - lastTickNanos;
+                averageIntervalNanos = averageIntervalNanos == 0 ? interval
+                        : averageIntervalNanos + (interval - averageIntervalNanos) / 8;
+            }
+            lastTickNanos = now;
+            tick(now);
+        });
+        timer.setCoalesce(true);
+    }
+
+    /** A clock without a timer; animations advance only through tick(), from any one thread. */
+    public static AnimationClock manual(int frameDelay) {
+        return new AnimationClock(frameDelay, true);
+    }
+
+    public void setFrameDelay(int frameDelay) {
+        this.frameDelay = frameDelay;
+        if (timer != null) timer.setDelay(frameDelay);
+    }
+
+    public int getFrameDelay() {
+        return frameDelay;
+    }
+
+    private long now() {
+        return timer == null ? manualNanos : System.nanoTime();
+    }
+
+    public void start(Animation animation) {
+        animation.startNanos = now();
+        animation.update(0.0f);
+        animations.add(animation);
+        if (timer != null && !timer.isRunning()) {
+            lastTickNanos = 0;
+            averageIntervalNanos = 0;
+            timer.start();
+        }
+    }
+
+    /** Frames per second the timer actually delivered recently, or 0 while idle. */
+    public double getMeasuredFrameRate() {
+        if (timer == null || !timer.isRunning() || averageIntervalNanos == 0) return 0;
+        return 1e9 / averageIntervalNanos;
+    }
+
+    public boolean isAnimating() {
+        return !animations.isEmpty();
+    }
+
+    public int getActiveCount() {
+        return animations.size();
+    }
+
+    /** Cancels every running animation; each still gets its finished() call. */
+    public void cancelAll() {
+        for (Animation animation : animations) {
+            animation.cancel();
+        }
+        tick(now());
+    }
+
+    /** Advances every animation to the given time. Normally driven by the timer. */
+    public void tick(long nowNanos) {
+        manualNanos = nowNanos;
+        // Callbacks may start new animations, so iterate by index over a growing list
+        for (int i = 0; i < animations.size(); i++) {
+            Animation animation = animations.get(i);
+            if (animation.cancelled) {
+                finished.add(animation);
+                continue;
+            }
+            long elapsed = nowNanos - animation.startNanos;
+            if (elapsed >= animation.durationNanos) {
+                animation.update(1.0f);
+                finished.add(animation);
+            } else {
+                animation.update(elapsed / (float) animation.durationNanos);
+            }
+        }
+        if (!finished.isEmpty()) {
+            animations.removeAll(finished);
+            for (Animation animation : finished) {
+                animation.finished();
+            }
+            finished.clear();
+        }
+        if (animations.isEmpty() && timer != null) {
+            timer.stop();
+        }
+    }
+}
@@ -0,0 +1,474 @@
+import javax.swing.*;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lets scripts and test harnesses drive a running window over a local
+ * socket, loopback TCP or a Unix domain socket, speaking the StackCli script
+ * language one command per line:
+ *
+ *   type Integer|Character|String   type used by this connection's pushes
+ *   push VALUE | pop | peek | clear
+ *   batch V1,V2,... | random N | popn N
+ *   size
+ *
+ * Every command gets one reply line, in order: "OK", "OK " and a result
+ * (the popped or peeked value, a count or the size), or "ERR " and the
+ * message the window would show. Clients may pipeline: send any number of
+ * commands before reading the replies.
+ *
+ * One daemon thread reads all connections through a selector and parses
+ * commands into a queue; the EDT applies the queue at most once per
+ * animation frame. Each command still goes through the engine on its own,
+ * so history and undo are exactly those of sending them one at a time, but
+ * the window is updated and repainted once per frame however many arrived.
+ * Reading stops while too many commands wait, so a fast client can't flood
+ * the queue.
+ */
+public class CommandServer {
+    // Commands waiting for the EDT before connections stop being read
+    private static final int MAX_PENDING = 1 << 18;
+    // Commands applied per frame; the rest wait for the next one
+    private static final int MAX_COMMANDS_PER_FRAME = 1 << 16;
+    // Unsent reply characters before a connection stops being read
+    private static final int MAX_REPLY_BACKLOG = 1 << 22;
+    private static final int INITIAL_LINE_BUFFER = 1 << 16;
+    private static final int MAX_LINE_LENGTH = 1 << 20;
+
+    private static final int TYPE = 0, PUSH = 1, POP = 2, PEEK = 3, CLEAR = 4, BATCH = 5, POP_MANY = 6, SIZE = 7, INVALID = 8;
+
+    /** One parsed line, replied to on the EDT. */
+    private static final class Command {
+        final Connection connection;
+        final int op;
+        final String argument;
+        // Of a push: its type
+        final String dataType;
+        StackModel staged;
+        int count;
+        String error;
+
+        Command(Connection connection, int op, String argument, String dataType) {
+            this.connection = connection;
+            this.op = op;
+            this.argument = argument;
+            this.dataType = dataType;
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        ByteBuffer input = ByteBuffer.allocate(INITIAL_LINE_BUFFER);
+        ByteBuffer output;
+        // Read side only
+        String dataType = "Integer";
+        boolean inputClosed = false;
+        // Filled on the EDT, drained by the selector thread
+        private final StringBuilder replies = new StringBuilder();
+        private int inFlight = 0;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        synchronized void queued() {
+            inFlight++;
+        }
+
+        synchronized void reply(String text) {
+            replies.append(text.replace('\n', ' ')).append('\n');
+            inFlight--;
+        }
+
+        synchronized boolean isIdle() {
+            return inFlight == 0 && replies.length() == 0 && (output == null || !output.hasRemaining());
+        }
+
+        synchronized int getBacklog() {
+            return replies.length() + (output == null ? 0 : output.remaining());
+        }
+
+        // Moves queued replies into the output buffer once the previous ones are sent
+        synchronized boolean takeReplies() {
+            if (output != null && output.hasRemaining()) return true;
+            if (replies.length() == 0) return false;
+            output = ByteBuffer.wrap(replies.toString().getBytes(StandardCharsets.UTF_8));
+            replies.setLength(0);
+            return true;
+        }
+    }
+
+    private final ServerSocketChannel server;
+    private final Path socketFile;
+    private final Selector selector;
+    private final AnimationClock clock;
+    private final Supplier<StackEngine> engines;
+    private final Runnable applied;
+    private final ConcurrentLinkedQueue<Command> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    // Set while an application is scheduled on the EDT, so arrivals schedule at most one
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Timer frameTimer;
+    private final Random random = new Random();
+    private volatile boolean closed = false;
+    private long lastAppliedNanos = 0;
+
+    private CommandServer(ServerSocketChannel server, Path socketFile, AnimationClock clock,
+                          Supplier<StackEngine> engines, Runnable applied) throws IOException {
+        this.server = server;
+        this.socketFile = socketFile;
+        this.clock = clock;
+        this.engines = engines;
+        this.applied = applied;
+        selector = Selector.open();
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        frameTimer = new Timer(0, e -> applyPending());
+        frameTimer.setRepeats(false);
+        Thread thread = new Thread(this::serve, "Command Server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Listens on the loopback interface; port 0 picks a free one. Commands go
+     * to the engine engines returns at the time they are applied, and applied
+     * runs on the EDT after every frame that applied commands.
+     */
+    public static CommandServer openTcp(int port, AnimationClock clock, Supplier<StackEngine> engines,
+                                        Runnable applied) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            return new CommandServer(server, null, clock, engines, applied);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Listens on a Unix domain socket at path, which must not exist yet.
+     * These need Java 16; they are opened reflectively so the code still
+     * builds for Java 8.
+     */
+    public static CommandServer openUnix(String path, AnimationClock clock, Supplier<StackEngine> engines,
+                                         Runnable applied) throws IOException {
+        ServerSocketChannel server;
+        SocketAddress address;
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", String.class).invoke(null, path);
+            server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                    .invoke(null, unix);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets need Java 16 or newer");
+        }
+        try {
+            server.bind(address);
+            return new CommandServer(server, Paths.get(path), clock, engines, applied);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    /** Where clients connect: the loopback address and port, or the socket file. */
+    public String getAddress() {
+        try {
+            return socketFile != null ? socketFile.toString() : String.valueOf(server.getLocalAddress());
+        } catch (IOException e) {
+            return "closed";
+        }
+    }
+
+    /** Stops listening and drops every connection; commands not yet applied are discarded. */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    // ---- Selector thread ----
+
+    private void serve() {
+        try {
+            while (!closed) {
+                boolean reading = pending.get() < MAX_PENDING;
+                for (SelectionKey key : selector.keys()) {
+                    if (key.isValid() && key.attachment() != null) updateInterest(key, reading);
+                }
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) read(key);
+                            if (key.isValid() && key.isWritable()) write(key);
+                        }
+                    } catch (IOException e) {
+                        drop(key);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("Command server stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+            try {
+                selector.close();
+                if (socketFile != null) Files.deleteIfExists(socketFile);
+            } catch (IOException e) {
+                // Nothing left to clean up
+            }
+        }
+    }
+
+    private void updateInterest(SelectionKey key, boolean reading) {
+        Connection connection = (Connection) key.attachment();
+        if (connection.inputClosed && connection.isIdle()) {
+            drop(key);
+            return;
+        }
+        int ops = 0;
+        if (reading && !connection.inputClosed && connection.getBacklog() < MAX_REPLY_BACKLOG) ops |= SelectionKey.OP_READ;
+        if (connection.takeReplies()) ops |= SelectionKey.OP_WRITE;
+        key.interestOps(ops);
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+    }
+
+    private void drop(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer input = connection.input;
+        if (connection.channel.read(input) < 0) {
+            connection.inputClosed = true;
+        }
+        byte[] bytes = input.array();
+        int start = 0;
+        int end = input.position();
+        int queued = 0;
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] != '\n') continue;
+            int length = i - start;
+            if (length > 0 && bytes[i - 1] == '\r') length--;
+            if (parse(connection, new String(bytes, start, length, StandardCharsets.UTF_8))) queued++;
+            start = i + 1;
+        }
+        // A script may end without a newline
+        if (connection.inputClosed && start < end) {
+            if (parse(connection, new String(bytes, start, end - start, StandardCharsets.UTF_8))) queued++;
+            start = end;
+        }
+        // Keep the partial last line; grow the buffer for long ones
+        input.position(start);
+        input.limit(end);
+        input.compact();
+        if (!input.hasRemaining()) {
+            if (input.capacity() >= MAX_LINE_LENGTH) {
+                Command tooLong = new Command(connection, INVALID, "", null);
+                tooLong.error = "Line too long (max " + MAX_LINE_LENGTH + " bytes)";
+                enqueue(tooLong);
+                queued++;
+                connection.inputClosed = true;
+            } else {
+                input.flip();
+                connection.input = ByteBuffer.allocate(input.capacity() * 2).put(input);
+            }
+        }
+        if (queued > 0) {
+            pending.addAndGet(queued);
+            schedule();
+        }
+    }
+
+    // Parses a line off the EDT; returns false for blank and comment lines, which get no reply
+    private boolean parse(Connection connection, String line) {
+        if (line.isEmpty() || line.charAt(0) == '#') return false;
+        int space = line.indexOf(' ');
+        String name = space < 0 ? line : line.substring(0, space);
+        String argument = space < 0 ? "" : line.substring(space + 1);
+        Command command;
+        try {
+            switch (name) {
+                case "type":
+                    command = new Command(connection, TYPE, argument, null);
+                    StackModel.forType(argument.trim());
+                    connection.dataType = argument.trim();
+                    break;
+                case "push":
+                    command = new Command(connection, PUSH, argument.trim(), connection.dataType);
+                    break;
+                case "pop":
+                    command = new Command(connection, POP, argument, null);
+                    break;
+                case "peek":
+                    command = new Command(connection, PEEK, argument, null);
+                    break;
+                case "clear":
+                    command = new Command(connection, CLEAR, argument, null);
+                    break;
+                case "batch":
+                    command = new Command(connection, BATCH, argument, null);
+                    command.staged = StackEngine.parseBatch(argument, connection.dataType);
+                    break;
+                case "random":
+                    command = new Command(connection, BATCH, argument, null);
+                    command.staged = StackEngine.randomBatch(connection.dataType, StackCli.parseCount(argument), random);
+                    break;
+                case "popn":
+                    command = new Command(connection, POP_MANY, argument, null);
+                    command.count = StackCli.parseCount(argument);
+                    break;
+                case "size":
+                    command = new Command(connection, SIZE, argument, null);
+                    break;
+                default:
+                    command = new Command(connection, INVALID, argument, null);
+                    command.error = "Unknown command \"" + name + "\"";
+                    break;
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            command = new Command(connection, INVALID, argument, null);
+            command.error = e.getMessage();
+        }
+        enqueue(command);
+        return true;
+    }
+
+    private void enqueue(Command command) {
+        command.connection.queued();
+        queue.add(command);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        while (connection.takeReplies()) {
+            if (connection.channel.write(connection.output) == 0) return;
+        }
+    }
+
+    // ---- EDT ----
+
+    // Any thread; applies on the EDT right away if the last frame is over, else when it is
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) return;
+        SwingUtilities.invokeLater(() -> {
+            long sinceLast = (System.nanoTime() - lastAppliedNanos) / 1_000_000;
+            frameTimer.setInitialDelay((int) Math.max(0, clock.getFrameDelay() - sinceLast));
+            frameTimer.restart();
+        });
+    }
+
+    private void applyPending() {
+        if (closed) {
+            queue.clear();
+            return;
+        }
+        lastAppliedNanos = System.nanoTime();
+        List<Command> batch = new ArrayList<>();
+        Command next;
+        while (batch.size() < MAX_COMMANDS_PER_FRAME && (next = queue.poll()) != null) {
+            batch.add(next);
+        }
+        StackEngine engine = engines.get();
+        // Each line on its own, so history and undo are those of typing them one by one
+        for (Command command : batch) {
+            apply(engine, command);
+        }
+        pending.addAndGet(-batch.size());
+        selector.wakeup();
+        if (!batch.isEmpty()) applied.run();
+        scheduled.set(false);
+        if (!queue.isEmpty()) schedule();
+    }
+
+    private void apply(StackEngine engine, Command command) {
+        String reply;
+        try {
+            switch (command.op) {
+                case PUSH:
+                    engine.push(command.argument, command.dataType);
+                    reply = "OK";
+                    break;
+                case POP:
+                    reply = "OK " + engine.pop();
+                    break;
+                case PEEK:
+                    reply = "OK " + engine.peek();
+                    break;
+                case CLEAR:
+                    engine.clear();
+                    reply = "OK";
+                    break;
+                case BATCH:
+                    engine.pushAll(command.staged);
+                    reply = "OK " + command.staged.size();
+                    break;
+                case POP_MANY:
+                    reply = "OK " + engine.pop(command.count);
+                    break;
+                case SIZE:
+                    reply = "OK " + engine.getModel().size();
+                    break;
+                case TYPE:
+                    reply = "OK";
+                    break;
+                default:
+                    reply = "ERR " + command.error;
+                    break;
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            reply = "ERR " + e.getMessage();
+        }
+        command.connection.reply(reply);
+    }
+}
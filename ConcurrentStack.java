@@ -0,0 +1,228 @@
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe int stacks for the contention workload. Every backend counts
+ * its pushes, pops and failed compare-and-set attempts in striped counters,
+ * so collecting the statistics doesn't add contention of its own.
+ */
+public abstract class ConcurrentStack {
+    /** Returned by pop() when the stack is empty. */
+    public static final long EMPTY = Long.MIN_VALUE;
+
+    protected final LongAdder pushes = new LongAdder();
+    protected final LongAdder pops = new LongAdder();
+    protected final LongAdder casFailures = new LongAdder();
+
+    public static ConcurrentStack forName(String name) {
+        switch (name) {
+            case TreiberStack.NAME:
+                return new TreiberStack();
+            case EliminationStack.NAME:
+                return new EliminationStack();
+            case LockedStack.NAME:
+                return new LockedStack();
+            default:
+                throw new IllegalArgumentException("Unknown backend: " + name);
+        }
+    }
+
+    public static String[] names() {
+        return new String[] {TreiberStack.NAME, EliminationStack.NAME, LockedStack.NAME};
+    }
+
+    public abstract String getName();
+
+    public abstract void push(int value);
+
+    /** Removes and returns the top value, or EMPTY. */
+    public abstract long pop();
+
+    public long getPushes() {
+        return pushes.sum();
+    }
+
+    public long getPops() {
+        return pops.sum();
+    }
+
+    /** Push and pop attempts that lost a race and had to retry (lock waits for the locked stack). */
+    public long getCasFailures() {
+        return casFailures.sum();
+    }
+
+    /** Approximate while operations are in flight. */
+    public long depth() {
+        return pushes.sum() - pops.sum();
+    }
+
+    private static final class Node {
+        final int value;
+        Node next;
+
+        Node(int value) {
+            this.value = value;
+        }
+    }
+
+    /** Treiber's lock-free stack: a linked list whose head is swapped with compare-and-set. */
+    public static class TreiberStack extends ConcurrentStack {
+        static final String NAME = "Treiber";
+
+        private final AtomicReference<Node> head = new AtomicReference<>();
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        public void push(int value) {
+            Node node = new Node(value);
+            while (true) {
+                Node top = head.get();
+                node.next = top;
+                if (head.compareAndSet(top, node)) break;
+                casFailures.increment();
+            }
+            pushes.increment();
+        }
+
+        @Override
+        public long pop() {
+            while (true) {
+                Node top = head.get();
+                if (top == null) return EMPTY;
+                if (head.compareAndSet(top, top.next)) {
+                    pops.increment();
+                    return top.value;
+                }
+                casFailures.increment();
+            }
+        }
+    }
+
+    /**
+     * Treiber stack with an elimination array (Hendler, Shavit and Yerushalmi).
+     * A push that loses the race on the head parks its node in a random slot
+     * for a short spin; a pop that loses the race looks in a random slot and,
+     * if it finds a node, takes it. The pair cancels out without touching the
+     * head, so throughput keeps rising with contention instead of collapsing.
+     */
+    public static class EliminationStack extends ConcurrentStack {
+        static final String NAME = "Elimination";
+        private static final int SPIN = 128;
+
+        private final AtomicReference<Node> head = new AtomicReference<>();
+        private final AtomicReferenceArray<Node> slots =
+                new AtomicReferenceArray<>(Math.max(1, Math.min(16, Runtime.getRuntime().availableProcessors() / 2)));
+        private final LongAdder eliminated = new LongAdder();
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        /** Push/pop pairs that met in the elimination array. */
+        public long getEliminated() {
+            return eliminated.sum();
+        }
+
+        @Override
+        public void push(int value) {
+            Node node = new Node(value);
+            while (true) {
+                Node top = head.get();
+                node.next = top;
+                if (head.compareAndSet(top, node)) break;
+                casFailures.increment();
+                if (exchange(node)) {
+                    eliminated.increment();
+                    break;
+                }
+            }
+            pushes.increment();
+        }
+
+        // Offers node to a waiting pop; true if one took it
+        private boolean exchange(Node node) {
+            int slot = ThreadLocalRandom.current().nextInt(slots.length());
+            if (!slots.compareAndSet(slot, null, node)) return false;
+            for (int i = 0; i < SPIN && slots.get(slot) == node; i++) {
+                // Busy-wait; a pop clears the slot when it takes the node
+            }
+            // Failing to withdraw the offer means a pop already took it
+            return !slots.compareAndSet(slot, node, null);
+        }
+
+        @Override
+        public long pop() {
+            while (true) {
+                Node top = head.get();
+                if (top == null) return EMPTY;
+                if (head.compareAndSet(top, top.next)) {
+                    pops.increment();
+                    return top.value;
+                }
+                casFailures.increment();
+                int slot = ThreadLocalRandom.current().nextInt(slots.length());
+                Node offered = slots.get(slot);
+                if (offered != null && slots.compareAndSet(slot, offered, null)) {
+                    pops.increment();
+                    return offered.value;
+                }
+            }
+        }
+    }
+
+    /** Baseline: a growable int array behind one lock. A contended lock acquisition counts as a failure. */
+    public static class LockedStack extends ConcurrentStack {
+        static final String NAME = "Locked";
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private int[] values = new int[16];
+        private int size = 0;
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        public void push(int value) {
+            acquire();
+            try {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                values[size++] = value;
+            } finally {
+                lock.unlock();
+            }
+            pushes.increment();
+        }
+
+        @Override
+        public long pop() {
+            acquire();
+            try {
+                if (size == 0) return EMPTY;
+                pops.increment();
+                return values[--size];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void acquire() {
+            if (!lock.tryLock()) {
+                casFailures.increment();
+                lock.lock();
+            }
+        }
+    }
+}
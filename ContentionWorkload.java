@@ -0,0 +1,278 @@
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Multi-producer/multi-consumer load on one or more ConcurrentStack backends.
+ * Backends run one after another for a fixed time each, so they don't compete
+ * for cores; sample() turns their counters into rates and may be called from
+ * any thread while the run is in progress.
+ */
+public class ContentionWorkload {
+    // Producers pause above this depth so a producer-heavy run can't exhaust the heap
+    private static final long MAX_DEPTH = 1_000_000;
+    private static final int CHECK_INTERVAL = 1024;
+
+    /** Rates of one backend over the last sampling interval. */
+    public static final class Stats {
+        public final String backend;
+        public final long depth;
+        public final double opsPerSecond;
+        public final double casFailureRate;
+        public final boolean running;
+
+        Stats(String backend, long depth, double opsPerSecond, double casFailureRate, boolean running) {
+            this.backend = backend;
+            this.depth = depth;
+            this.opsPerSecond = opsPerSecond;
+            this.casFailureRate = casFailureRate;
+            this.running = running;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-11s %,9d deep %,12.0f ops/s %5.1f%% CAS fail",
+                    backend, depth, opsPerSecond, casFailureRate * 100);
+        }
+    }
+
+    // Counter values at the previous sample, per backend
+    private static final class Sampler {
+        final ConcurrentStack stack;
+        long lastOperations, lastFailures, lastNanos;
+        long startNanos, endNanos;
+        Stats stats;
+
+        Sampler(ConcurrentStack stack) {
+            this.stack = stack;
+            this.stats = new Stats(stack.getName(), 0, 0, 0, false);
+        }
+    }
+
+    private final List<Sampler> samplers = new ArrayList<>();
+    private final int producers;
+    private final int consumers;
+    private final boolean virtualThreads;
+    private final long millisPerBackend;
+    private volatile boolean stopRequested = false;
+    private volatile int current = -1;
+    // Workers of one backend are joined before the next starts, so one flag serves every run
+    private volatile boolean workersStopped;
+    private volatile long sink;
+    private Thread coordinator;
+
+    public ContentionWorkload(List<ConcurrentStack> backends, int producers, int consumers,
+                              boolean virtualThreads, long millisPerBackend) {
+        for (ConcurrentStack stack : backends) {
+            samplers.add(new Sampler(stack));
+        }
+        this.producers = producers;
+        this.consumers = consumers;
+        this.virtualThreads = virtualThreads && isVirtualThreadSupported();
+        this.millisPerBackend = millisPerBackend;
+    }
+
+    /** Virtual threads need Java 21; they are created reflectively so the code still builds for Java 8. */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public synchronized void start() {
+        if (coordinator != null) throw new IllegalStateException("Workload already started");
+        coordinator = new Thread(this::runAll, "Contention Workload");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    /** Stops the backend that is running and skips the rest. */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    public boolean isFinished() {
+        return coordinator != null && !coordinator.isAlive();
+    }
+
+    /** Blocks until every backend has run. */
+    public void join() throws InterruptedException {
+        if (coordinator != null) coordinator.join();
+    }
+
+    private void runAll() {
+        for (int i = 0; i < samplers.size() && !stopRequested; i++) {
+            Sampler sampler = samplers.get(i);
+            List<Thread> workers = new ArrayList<>();
+            ConcurrentStack stack = sampler.stack;
+            for (int p = 0; p < producers; p++) {
+                workers.add(newThread(() -> produce(stack), stack.getName() + " Producer " + p));
+            }
+            for (int c = 0; c < consumers; c++) {
+                workers.add(newThread(() -> consume(stack), stack.getName() + " Consumer " + c));
+            }
+            workersStopped = false;
+            synchronized (sampler) {
+                sampler.startNanos = sampler.lastNanos = System.nanoTime();
+            }
+            current = i;
+            for (Thread worker : workers) worker.start();
+
+            long deadline = System.nanoTime() + millisPerBackend * 1_000_000L;
+            try {
+                while (!stopRequested && System.nanoTime() < deadline) {
+                    Thread.sleep(Math.max(1, Math.min(50, (deadline - System.nanoTime()) / 1_000_000L)));
+                }
+            } catch (InterruptedException e) {
+                stopRequested = true;
+            }
+            workersStopped = true;
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    stopRequested = true;
+                }
+            }
+            synchronized (sampler) {
+                sampler.endNanos = System.nanoTime();
+            }
+            current = -1;
+        }
+    }
+
+    // ---- Workers ----
+
+    private void produce(ConcurrentStack stack) {
+        int value = 0;
+        while (!workersStopped) {
+            for (int i = 0; i < CHECK_INTERVAL; i++) {
+                stack.push(value++);
+            }
+            while (stack.depth() > MAX_DEPTH && !workersStopped) {
+                Thread.yield();
+            }
+            // Lets other virtual threads onto the carrier
+            Thread.yield();
+        }
+    }
+
+    private void consume(ConcurrentStack stack) {
+        long sum = 0;
+        while (!workersStopped) {
+            for (int i = 0; i < CHECK_INTERVAL; i++) {
+                long value = stack.pop();
+                if (value != ConcurrentStack.EMPTY) sum += value;
+            }
+            Thread.yield();
+        }
+        sink = sum;
+    }
+
+    private Thread newThread(Runnable task, String name) {
+        if (virtualThreads) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                builder = builderType.getMethod("name", String.class).invoke(builder, name);
+                Method unstarted = builderType.getMethod("unstarted", Runnable.class);
+                return (Thread) unstarted.invoke(builder, task);
+            } catch (ReflectiveOperationException e) {
+                // Fall back to a platform thread
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    // ---- Sampling ----
+
+    /** Updates and returns the stats of every backend, in run order. */
+    public List<Stats> sample() {
+        List<Stats> result = new ArrayList<>(samplers.size());
+        long now = System.nanoTime();
+        for (int i = 0; i < samplers.size(); i++) {
+            Sampler sampler = samplers.get(i);
+            synchronized (sampler) {
+                if (sampler.startNanos != 0) {
+                    ConcurrentStack stack = sampler.stack;
+                    long operations = stack.getPushes() + stack.getPops();
+                    long failures = stack.getCasFailures();
+                    boolean running = i == current;
+                    long end = running || sampler.endNanos == 0 ? now : sampler.endNanos;
+                    long interval = end - sampler.lastNanos;
+                    long deltaOps = operations - sampler.lastOperations;
+                    long deltaFailures = failures - sampler.lastFailures;
+                    if (running && interval > 0) {
+                        sampler.stats = new Stats(stack.getName(), stack.depth(), deltaOps * 1e9 / interval,
+                                rate(deltaFailures, deltaOps), true);
+                        sampler.lastOperations = operations;
+                        sampler.lastFailures = failures;
+                        sampler.lastNanos = now;
+                    } else if (!running && sampler.endNanos != 0) {
+                        // Finished: report the average over the whole run
+                        long total = sampler.endNanos - sampler.startNanos;
+                        sampler.stats = new Stats(stack.getName(), stack.depth(), total > 0 ? operations * 1e9 / total : 0,
+                                rate(failures, operations), false);
+                    }
+                }
+                result.add(sampler.stats);
+            }
+        }
+        return result;
+    }
+
+    private static double rate(long failures, long operations) {
+        long attempts = failures + operations;
+        return attempts == 0 ? 0 : failures / (double) attempts;
+    }
+
+    /**
+     * Scaling sweep without a display: runs every backend at each thread count
+     * (half producers, half consumers) and prints the averages.
+     *
+     *   java ContentionWorkload [--virtual] [--millis N] [THREADS...]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        boolean virtual = false;
+        long millis = 2000;
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--virtual")) {
+                virtual = true;
+            } else if (args[i].equals("--millis")) {
+                millis = Long.parseLong(args[++i]);
+            } else {
+                threadCounts.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (threadCounts.isEmpty()) {
+            for (int n = 2; n <= 2 * Runtime.getRuntime().availableProcessors(); n *= 2) threadCounts.add(n);
+        }
+        if (virtual && !isVirtualThreadSupported()) {
+            System.err.println("Virtual threads need Java 21; using platform threads");
+        }
+
+        for (int threads : threadCounts) {
+            List<ConcurrentStack> backends = new ArrayList<>();
+            for (String name : ConcurrentStack.names()) backends.add(ConcurrentStack.forName(name));
+            int producers = Math.max(1, threads / 2);
+            ContentionWorkload workload = new ContentionWorkload(backends, producers, Math.max(1, threads - producers), virtual, millis);
+            workload.start();
+            workload.join();
+            System.out.println(threads + " threads" + (workload.isUsingVirtualThreads() ? " (virtual)" : "") + ":");
+            for (Stats stats : workload.sample()) {
+                System.out.println("  " + stats);
+            }
+        }
+    }
+}
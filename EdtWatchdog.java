@@ -0,0 +1,218 @@
+import java.awt.EventQueue;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Detects stalls of the event dispatch thread. A daemon thread keeps one
+ * heartbeat event in the queue at a time; when a heartbeat has waited longer
+ * than the threshold, the EDT's stack (with the lock it waits on, if any) and
+ * the operation in progress are recorded in a bounded log. The record's
+ * duration is completed once the heartbeat finally runs.
+ */
+public class EdtWatchdog {
+    private static final int MAX_STACK_DEPTH = 64;
+
+    /** One stall of the EDT. */
+    public static final class Stall {
+        final long startMillis;
+        final String operation;
+        final String stackTrace;
+        volatile long durationNanos;
+        volatile boolean ended;
+
+        Stall(long startMillis, String operation, String stackTrace, long durationNanos) {
+            this.startMillis = startMillis;
+            this.operation = operation;
+            this.stackTrace = stackTrace;
+            this.durationNanos = durationNanos;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getDurationMillis() {
+            return durationNanos / 1_000_000;
+        }
+
+        public String getStackTrace() {
+            return stackTrace;
+        }
+
+        @Override
+        public String toString() {
+            String start = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.ROOT).format(new Date(startMillis));
+            return start + "  EDT stalled " + getDurationMillis() + " ms" + (ended ? "" : " (ongoing)")
+                    + " during " + operation;
+        }
+    }
+
+    private final long thresholdNanos;
+    private final Stall[] log;
+    private int logHead = 0;
+    private int logCount = 0;
+    private long totalStalls = 0;
+
+    private volatile String operation;
+    private volatile Thread eventThread;
+    private volatile boolean heartbeatPending = false;
+    private volatile long heartbeatPostedNanos;
+    private volatile long heartbeatRanNanos;
+    private final Runnable heartbeat = () -> {
+        eventThread = Thread.currentThread();
+        heartbeatRanNanos = System.nanoTime();
+        heartbeatPending = false;
+    };
+    private volatile boolean running = false;
+    private Thread thread;
+
+    public EdtWatchdog(long thresholdMillis, int capacity) {
+        this.thresholdNanos = thresholdMillis * 1_000_000L;
+        this.log = new Stall[capacity];
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::watch, "EDT Watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+
+    /** Runs action on the EDT with name recorded as the operation in progress. */
+    public void run(String name, Runnable action) {
+        String previous = operation;
+        operation = name;
+        try {
+            action.run();
+        } finally {
+            operation = previous;
+        }
+    }
+
+    private void watch() {
+        // Checking a few times per threshold bounds how late a stall is noticed
+        long pollMillis = Math.max(5, thresholdNanos / 4_000_000L);
+        Stall current = null;
+        while (running) {
+            if (!heartbeatPending) {
+                heartbeatPending = true;
+                heartbeatPostedNanos = System.nanoTime();
+                EventQueue.invokeLater(heartbeat);
+            }
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long posted = heartbeatPostedNanos;
+            if (heartbeatPending) {
+                long waited = System.nanoTime() - posted;
+                if (current == null && waited >= thresholdNanos) {
+                    current = capture(waited);
+                } else if (current != null) {
+                    current.durationNanos = waited;
+                }
+            } else if (current != null) {
+                current.durationNanos = heartbeatRanNanos - posted;
+                current.ended = true;
+                System.err.println(current);
+                current = null;
+            }
+        }
+    }
+
+    private Stall capture(long waitedNanos) {
+        Thread edt = eventThread;
+        String trace = "EDT not known yet";
+        String name = operation;
+        if (edt != null) {
+            ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(edt.getId(), MAX_STACK_DEPTH);
+            if (info != null) {
+                trace = describe(info);
+                if (name == null) name = inferOperation(info.getStackTrace());
+            }
+        }
+        Stall stall = new Stall(System.currentTimeMillis() - waitedNanos / 1_000_000, name == null ? "event" : name,
+                trace, waitedNanos);
+        synchronized (this) {
+            log[logHead] = stall;
+            logHead = (logHead + 1) % log.length;
+            if (logCount < log.length) logCount++;
+            totalStalls++;
+        }
+        return stall;
+    }
+
+    private static String describe(ThreadInfo info) {
+        StringBuilder text = new StringBuilder();
+        text.append('"').append(info.getThreadName()).append("\" ").append(info.getThreadState());
+        LockInfo lock = info.getLockInfo();
+        if (lock != null) {
+            text.append(" on ").append(lock);
+            if (info.getLockOwnerName() != null) {
+                text.append(" owned by \"").append(info.getLockOwnerName()).append('"');
+            }
+        }
+        text.append('\n');
+        for (StackTraceElement frame : info.getStackTrace()) {
+            text.append("    at ").append(frame).append('\n');
+        }
+        return text.toString();
+    }
+
+    // Without an explicit operation, the stack still tells animation and painting apart
+    private static String inferOperation(StackTraceElement[] frames) {
+        for (StackTraceElement frame : frames) {
+            if (frame.getClassName().startsWith("AnimationClock")) return "animate";
+        }
+        for (StackTraceElement frame : frames) {
+            if (frame.getMethodName().startsWith("paint")) return "paint";
+        }
+        return null;
+    }
+
+    /** Recorded stalls, oldest first; only the most recent ones are kept. */
+    public synchronized List<Stall> getStalls() {
+        List<Stall> stalls = new ArrayList<>(logCount);
+        for (int i = 0; i < logCount; i++) {
+            stalls.add(log[(logHead - logCount + i + log.length) % log.length]);
+        }
+        return stalls;
+    }
+
+    public synchronized long getTotalStalls() {
+        return totalStalls;
+    }
+
+    public long getThresholdMillis() {
+        return thresholdNanos / 1_000_000;
+    }
+
+    /** Writes every kept stall with its stack trace. */
+    public void export(Writer out) throws IOException {
+        List<Stall> stalls = getStalls();
+        out.write("EDT stalls over " + getThresholdMillis() + " ms: " + getTotalStalls() + " total, "
+                + stalls.size() + " kept\n");
+        for (Stall stall : stalls) {
+            out.write('\n');
+            out.write(stall.toString());
+            out.write('\n');
+            out.write(stall.getStackTrace());
+        }
+        out.flush();
+    }
+}
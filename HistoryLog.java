@@ -0,0 +1,181 @@
+import javax.swing.*;
+
+/**
+ * Fixed-capacity ring buffer of operation history entries, oldest first.
+ * Entries are stored in blocks allocated on demand; once the capacity is
+ * reached each new entry evicts the oldest, and a block is let go once all
+ * of its entries are evicted. A slot is written only once, so freeze can
+ * hand out the current entries in O(1) without copying them. Doubles as the
+ * JList model, so appends and evictions are announced as single-row events
+ * instead of a full rebuild.
+ */
+public class HistoryLog extends AbstractListModel<String> {
+    private static final int MAX_BLOCK_SHIFT = 10;
+
+    /** A run of slots, each written once; blocks are chained in the order they were filled. */
+    private static final class Block {
+        final String[] entries;
+        Block next;
+
+        Block(int size) {
+            entries = new String[size];
+        }
+    }
+
+    /** The entries of a log at the moment it was frozen; later changes to the log don't show. */
+    public static final class Frozen {
+        private final Block first;
+        private final int head;
+        private final int count;
+
+        private Frozen(Block first, int head, int count) {
+            this.first = first;
+            this.head = head;
+            this.count = count;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /** Copies the entries, oldest first. Safe on any thread once the log has been frozen. */
+        public String[] toArray() {
+            String[] copy = new String[count];
+            Block block = first;
+            int slot = head;
+            for (int i = 0; i < count; i++) {
+                if (slot == block.entries.length) {
+                    block = block.next;
+                    slot = 0;
+                }
+                copy[i] = block.entries[slot++];
+            }
+            return copy;
+        }
+    }
+
+    private final int capacity;
+    // Small logs get blocks no bigger than themselves, so evicted entries aren't kept long
+    private final int blockShift;
+    private Block[] blocks = new Block[0];  // ring of the blocks in use, oldest at firstBlock
+    private int firstBlock = 0;
+    private int blockCount = 0;
+    private int head = 0;   // slot of the oldest entry in the first block
+    private int count = 0;
+
+    public HistoryLog(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.blockShift = Math.min(MAX_BLOCK_SHIFT, 32 - Integer.numberOfLeadingZeros(capacity - 1));
+    }
+
+    // Entry texts shared by the UI and journal replay
+
+    public static String pushed(String value) {
+        return "Pushed: " + value;
+    }
+
+    public static String popped(String value) {
+        return "Popped: " + value;
+    }
+
+    public static String peeked(String value) {
+        return "Peeked: " + value;
+    }
+
+    public static String batchPushed(int count) {
+        return "Batch pushed " + count + " values";
+    }
+
+    public static String batchPopped(int count) {
+        return "Batch popped " + count + " values";
+    }
+
+    public static String cleared(int count) {
+        return "Cleared " + count + " values";
+    }
+
+    public static String restored(int version, int size) {
+        return "Went back to step " + version + " (" + size + " values)";
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void add(String entry) {
+        if (count == capacity) {
+            head++;
+            count--;
+            if (head == 1 << blockShift) {
+                blocks[firstBlock] = null;
+                firstBlock = (firstBlock + 1) % blocks.length;
+                blockCount--;
+                head = 0;
+            }
+            fireIntervalRemoved(this, 0, 0);
+        }
+        int position = head + count;
+        if (position == blockCount << blockShift) {
+            addBlock();
+        }
+        block(position >> blockShift).entries[position & ((1 << blockShift) - 1)] = entry;
+        count++;
+        fireIntervalAdded(this, count - 1, count - 1);
+    }
+
+    private void addBlock() {
+        if (blockCount == blocks.length) {
+            Block[] grown = new Block[Math.max(4, blocks.length * 2)];
+            for (int i = 0; i < blockCount; i++) {
+                grown[i] = block(i);
+            }
+            blocks = grown;
+            firstBlock = 0;
+        }
+        Block block = new Block(1 << blockShift);
+        if (blockCount > 0) block(blockCount - 1).next = block;
+        blocks[(firstBlock + blockCount) % blocks.length] = block;
+        blockCount++;
+    }
+
+    private Block block(int index) {
+        return blocks[(firstBlock + index) % blocks.length];
+    }
+
+    // Blocks are dropped rather than emptied, since frozen logs may still read them
+    public void clear() {
+        if (count == 0) return;
+        int oldCount = count;
+        blocks = new Block[0];
+        firstBlock = 0;
+        blockCount = 0;
+        head = 0;
+        count = 0;
+        fireIntervalRemoved(this, 0, oldCount - 1);
+    }
+
+    /** The current entries in O(1); they stay as they are whatever happens to the log afterwards. */
+    public Frozen freeze() {
+        return new Frozen(count == 0 ? null : block(0), head, count);
+    }
+
+    /** Copies the entries, oldest first. */
+    public String[] toArray() {
+        return freeze().toArray();
+    }
+
+    @Override
+    public int getSize() {
+        return count;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        int position = head + index;
+        return block(position >> blockShift).entries[position & ((1 << blockShift) - 1)];
+    }
+}
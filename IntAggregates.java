@@ -0,0 +1,192 @@
+import java.util.Arrays;
+
+/**
+ * Minimum, maximum, sum and most frequent value of an IntStack, updated on
+ * every push and pop in O(1) so they can be shown live at any depth.
+ *
+ * The minimum and maximum come from monotonic stacks: a value is kept only
+ * while it is the minimum (maximum) of everything below it, so popping it
+ * reveals the previous one. For the mode, each value's count is kept in a
+ * hash table, and groups[f - 1] lists, in push order, the values whose count
+ * reached f. Pops undo pushes in reverse order, so the popped value is always
+ * last in its group, and the mode is the last value of the highest group.
+ */
+public class IntAggregates {
+    private int count = 0;
+    private long sum = 0;
+    private int[] mins = new int[16];
+    private int minCount = 0;
+    private int[] maxs = new int[16];
+    private int maxCount = 0;
+
+    // Open addressing with linear probing; a slot is free when its count is 0
+    private int[] keys = new int[16];
+    private int[] counts = new int[16];
+    private int used = 0;
+
+    private int[][] groups = new int[4][];
+    private int[] groupSizes = new int[4];
+    private int maxFrequency = 0;
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public double getMean() {
+        checkNotEmpty();
+        return (double) sum / count;
+    }
+
+    public int getMin() {
+        checkNotEmpty();
+        return mins[minCount - 1];
+    }
+
+    public int getMax() {
+        checkNotEmpty();
+        return maxs[maxCount - 1];
+    }
+
+    /** The most frequent value; of several, the one that reached that count last. */
+    public int getMode() {
+        checkNotEmpty();
+        return groups[maxFrequency - 1][groupSizes[maxFrequency - 1] - 1];
+    }
+
+    /** How often the mode occurs. */
+    public int getModeCount() {
+        return maxFrequency;
+    }
+
+    /** Occurrences of value; O(1) on average. */
+    public int getFrequency(int value) {
+        return counts[find(value)];
+    }
+
+    private void checkNotEmpty() {
+        if (count == 0) throw new IllegalStateException("Stack is empty");
+    }
+
+    void pushed(int value) {
+        count++;
+        sum += value;
+        if (minCount == 0 || value <= mins[minCount - 1]) {
+            if (minCount == mins.length) mins = Arrays.copyOf(mins, minCount * 2);
+            mins[minCount++] = value;
+        }
+        if (maxCount == 0 || value >= maxs[maxCount - 1]) {
+            if (maxCount == maxs.length) maxs = Arrays.copyOf(maxs, maxCount * 2);
+            maxs[maxCount++] = value;
+        }
+
+        int slot = find(value);
+        if (counts[slot] == 0) {
+            keys[slot] = value;
+            used++;
+        }
+        int frequency = ++counts[slot];
+        if (used * 2 > keys.length) rehash(keys.length * 2);
+        addToGroup(frequency, value);
+    }
+
+    /** Undoes the push of value, which must be the top of the stack. */
+    void popped(int value) {
+        count--;
+        sum -= value;
+        if (value == mins[minCount - 1]) minCount--;
+        if (value == maxs[maxCount - 1]) maxCount--;
+
+        int slot = find(value);
+        int frequency = counts[slot]--;
+        groupSizes[frequency - 1]--;
+        if (frequency == maxFrequency && groupSizes[frequency - 1] == 0) maxFrequency--;
+        if (counts[slot] == 0) remove(slot);
+    }
+
+    void clear() {
+        count = 0;
+        sum = 0;
+        minCount = 0;
+        maxCount = 0;
+        // Fresh tables, so a cleared million-element stack gives its memory back
+        keys = new int[16];
+        counts = new int[16];
+        used = 0;
+        groups = new int[4][];
+        groupSizes = new int[4];
+        maxFrequency = 0;
+    }
+
+    private void addToGroup(int frequency, int value) {
+        if (frequency > groups.length) {
+            groups = Arrays.copyOf(groups, groups.length * 2);
+            groupSizes = Arrays.copyOf(groupSizes, groupSizes.length * 2);
+        }
+        int[] group = groups[frequency - 1];
+        int size = groupSizes[frequency - 1];
+        if (group == null) {
+            group = groups[frequency - 1] = new int[16];
+        } else if (size == group.length) {
+            group = groups[frequency - 1] = Arrays.copyOf(group, size * 2);
+        }
+        group[size] = value;
+        groupSizes[frequency - 1] = size + 1;
+        maxFrequency = Math.max(maxFrequency, frequency);
+    }
+
+    // ---- Count table ----
+
+    private int home(int value) {
+        return (value * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(keys.length));
+    }
+
+    // The slot holding value, or the free slot where it would go
+    private int find(int value) {
+        int mask = keys.length - 1;
+        int slot = home(value);
+        while (counts[slot] != 0 && keys[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Frees slot, moving later entries of its probe run back so every lookup still finds them
+    private void remove(int slot) {
+        int mask = keys.length - 1;
+        used--;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (counts[next] == 0) break;
+            int home = home(keys[next]);
+            // Entries whose home lies cyclically in (slot, next] stay where they are
+            if (slot <= next ? (slot < home && home <= next) : (slot < home || home <= next)) continue;
+            keys[slot] = keys[next];
+            counts[slot] = counts[next];
+            counts[next] = 0;
+            slot = next;
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[capacity];
+        counts = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
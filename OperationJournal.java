@@ -0,0 +1,627 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Append-only binary journal of stack operations, written through a
+ * memory-mapped file by a background thread so the EDT only encodes a few
+ * bytes and enqueues them. Every few hundred thousand operations the caller
+ * hands over a snapshot of the stack and history, captured without copying;
+ * the writer serializes it next to the journal and restarts the journal,
+ * which keeps replay short.
+ *
+ * Each record's op byte is written after its payload, and the unused tail of
+ * the file is kept zeroed, so replay stops cleanly at the first incomplete
+ * record left by a crash.
+ */
+public class OperationJournal implements Closeable {
+    private static final int JOURNAL_MAGIC = 0x53564a4c; // "SVJL"
+    private static final int SNAPSHOT_MAGIC = 0x5356534e; // "SVSN"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int INITIAL_MAPPING = 16 << 20;
+    private static final int SNAPSHOT_INTERVAL = 500_000;
+
+    private static final byte OP_END = 0;
+    private static final byte OP_PUSH_INT = 1;
+    private static final byte OP_PUSH_CHAR = 2;
+    private static final byte OP_PUSH_STRING = 3;
+    private static final byte OP_POP = 4;
+    private static final byte OP_POP_MANY = 5;
+    private static final byte OP_PEEK = 6;
+    private static final byte OP_CLEAR = 7;
+    private static final byte OP_BATCH_INT = 8;
+    private static final byte OP_BATCH_CHAR = 9;
+    private static final byte OP_BATCH_STRING = 10;
+
+    private static final Object CLOSE = new Object();
+
+    private final File journalFile, snapshotFile;
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // Set when writing failed; from then on nothing more is journaled
+    private volatile IOException writeError;
+
+    // Owned by the writer thread once it starts
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private long generation;
+
+    // Recovered state, handed to the UI once
+    private StackModel recoveredModel;
+    private String[] recoveredHistory = new String[0];
+    private long recoveredOperations;
+
+    // Touched only by the caller (EDT)
+    private int operationsSinceSnapshot = 0;
+
+    /** Stack and history as they were when snapshot was called, for the writer to persist. */
+    private static final class Snapshot {
+        final StackModel model;
+        final HistoryLog.Frozen history;
+
+        Snapshot(StackModel model, HistoryLog.Frozen history) {
+            this.model = model;
+            this.history = history;
+        }
+    }
+
+    private OperationJournal(File directory) {
+        this.journalFile = new File(directory, "journal.bin");
+        this.snapshotFile = new File(directory, "snapshot.bin");
+        this.writer = new Thread(this::writeLoop, "Journal Writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Recovers the last state from directory and opens the journal for
+     * appending. History beyond historyCapacity entries is not materialized.
+     */
+    public static OperationJournal open(File directory, int historyCapacity) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+        OperationJournal journal = new OperationJournal(directory);
+        journal.recover(historyCapacity);
+        journal.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // Already reported by the writer when it stopped
+            }
+        }, "Journal Shutdown"));
+        return journal;
+    }
+
+    /** Model rebuilt from the snapshot and journal, or null if the stack was empty. */
+    public StackModel getRecoveredModel() {
+        return recoveredModel;
+    }
+
+    /** Recovered history entries, oldest first. */
+    public String[] getRecoveredHistory() {
+        return recoveredHistory;
+    }
+
+    public long getRecoveredOperations() {
+        return recoveredOperations;
+    }
+
+    // ---- Logging, called on the EDT ----
+
+    /** Logs a push of the current top element of stack. */
+    public void logPush(StackModel stack) {
+        int top = stack.size() - 1;
+        byte[] record;
+        if (stack instanceof StackModel.IntStack) {
+            record = new byte[5];
+            record[0] = OP_PUSH_INT;
+            putInt(record, 1, ((StackModel.IntStack) stack).getInt(top));
+        } else if (stack instanceof StackModel.CharStack) {
+            record = new byte[3];
+            record[0] = OP_PUSH_CHAR;
+            putChar(record, 1, ((StackModel.CharStack) stack).getChar(top));
+        } else {
+            byte[] utf = stack.toString(top).getBytes(StandardCharsets.UTF_8);
+            record = new byte[3 + utf.length];
+            record[0] = OP_PUSH_STRING;
+            putChar(record, 1, (char) utf.length);
+            System.arraycopy(utf, 0, record, 3, utf.length);
+        }
+        enqueue(record, 1);
+    }
+
+    /** Logs the values of a batch that was appended with pushAll. */
+    public void logBatchPush(StackModel staged) {
+        int count = staged.size();
+        byte[] record;
+        if (staged instanceof StackModel.IntStack) {
+            StackModel.IntStack ints = (StackModel.IntStack) staged;
+            record = new byte[5 + 4 * count];
+            record[0] = OP_BATCH_INT;
+            for (int i = 0; i < count; i++) putInt(record, 5 + 4 * i, ints.getInt(i));
+        } else if (staged instanceof StackModel.CharStack) {
+            StackModel.CharStack chars = (StackModel.CharStack) staged;
+            record = new byte[5 + 2 * count];
+            record[0] = OP_BATCH_CHAR;
+            for (int i = 0; i < count; i++) putChar(record, 5 + 2 * i, chars.getChar(i));
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(5 + 8 * count);
+            bytes.write(OP_BATCH_STRING);
+            bytes.write(new byte[4], 0, 4);
+            for (int i = 0; i < count; i++) {
+                byte[] utf = staged.toString(i).getBytes(StandardCharsets.UTF_8);
+                bytes.write(utf.length >>> 8);
+                bytes.write(utf.length);
+                bytes.write(utf, 0, utf.length);
+            }
+            record = bytes.toByteArray();
+        }
+        putInt(record, 1, count);
+        enqueue(record, count);
+    }
+
+    public void logPop() {
+        enqueue(new byte[] {OP_POP}, 1);
+    }
+
+    public void logPopMany(int count) {
+        byte[] record = new byte[5];
+        record[0] = OP_POP_MANY;
+        putInt(record, 1, count);
+        enqueue(record, count);
+    }
+
+    public void logPeek() {
+        enqueue(new byte[] {OP_PEEK}, 1);
+    }
+
+    public void logClear() {
+        enqueue(new byte[] {OP_CLEAR}, 1);
+    }
+
+    /** True once enough operations were logged that a snapshot is worth taking. */
+    public boolean isSnapshotDue() {
+        return operationsSinceSnapshot >= SNAPSHOT_INTERVAL;
+    }
+
+    /**
+     * Hands the background thread a stack that will never change again, such
+     * as a timeline version, and the frozen history to write out; nothing is
+     * copied on the caller's thread.
+     */
+    public void snapshot(StackModel frozen, HistoryLog.Frozen history) {
+        if (writeError != null) return;
+        queue.offer(new Snapshot(frozen, history));
+        operationsSinceSnapshot = 0;
+    }
+
+    private void enqueue(byte[] record, int operations) {
+        if (writeError != null) return;
+        queue.offer(record);
+        operationsSinceSnapshot += operations;
+    }
+
+    /** Writes out everything queued so far and syncs the journal to disk. */
+    @Override
+    public void close() throws IOException {
+        if (writer.isAlive()) {
+            queue.offer(CLOSE);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    private static void putChar(byte[] b, int offset, char value) {
+        b[offset] = (byte) (value >>> 8);
+        b[offset + 1] = (byte) value;
+    }
+
+    // ---- Writer thread ----
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Object item = queue.take();
+                if (item == CLOSE) break;
+                if (item instanceof Snapshot) {
+                    writeSnapshot((Snapshot) item);
+                } else {
+                    append((byte[]) item);
+                }
+            }
+            buffer.force();
+            file.close();
+        } catch (IOException e) {
+            abandon(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Stops journaling for good after a failed write; close rethrows the error
+    private void abandon(IOException error) {
+        writeError = error;
+        queue.clear();
+        System.err.println("Journal disabled: " + error.getMessage());
+        try {
+            if (file != null) file.close();
+        } catch (IOException e) {
+            // Abandoned either way
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        int position = buffer.position();
+        // One extra byte keeps room for the zero that marks the end of the journal
+        if (buffer.remaining() < record.length + 1) {
+            remap(position + record.length + 1);
+        }
+        buffer.position(position + 1);
+        buffer.put(record, 1, record.length - 1);
+        buffer.put(position, record[0]);
+    }
+
+    private void remap(long required) throws IOException {
+        long size = Math.max(INITIAL_MAPPING, buffer == null ? 0 : buffer.capacity());
+        while (size < required) size *= 2;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Journal exceeds 2 GB; snapshots are not keeping up");
+        }
+        int position = buffer == null ? HEADER_SIZE : buffer.position();
+        if (buffer != null) buffer.force();
+        file.setLength(size);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.position(position);
+    }
+
+    private void writeSnapshot(Snapshot snapshot) throws IOException {
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeLong(buffer.position());
+            StackModel model = snapshot.model;
+            String dataType = model.getDataType();
+            out.writeUTF(dataType);
+            out.writeInt(model.size());
+            // Read top down, which a timeline version walks one node per element
+            Object[] values = new Object[model.size()];
+            for (int i = values.length - 1; i >= 0; i--) {
+                values[i] = model.get(i);
+            }
+            for (Object value : values) {
+                if (dataType.equals("Integer")) {
+                    out.writeInt((Integer) value);
+                } else if (dataType.equals("Character")) {
+                    out.writeChar((Character) value);
+                } else {
+                    out.writeUTF((String) value);
+                }
+            }
+            String[] history = snapshot.history.toArray();
+            out.writeInt(history.length);
+            for (String entry : history) {
+                out.writeUTF(entry);
+            }
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The snapshot covers everything journaled so far, so start a new generation
+        resetJournal(generation + 1, buffer.position());
+    }
+
+    /**
+     * Starts a new, empty generation in place. Files are never replaced while
+     * mapped, which Windows would refuse. Old records are cleared before the
+     * generation is bumped; a crash in between leaves the old generation,
+     * whose snapshot offset already points past everything cleared.
+     */
+    private void resetJournal(long newGeneration, int usedEnd) throws IOException {
+        if (file == null) {
+            file = new RandomAccessFile(journalFile, "rw");
+        }
+        if (buffer == null) {
+            remap(HEADER_SIZE + 1);
+        }
+        zero(HEADER_SIZE, usedEnd);
+        buffer.putInt(0, JOURNAL_MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, newGeneration);
+        buffer.force();
+        generation = newGeneration;
+        buffer.position(HEADER_SIZE);
+    }
+
+    private void zero(int from, int to) {
+        byte[] zeros = new byte[1 << 16];
+        buffer.position(from);
+        while (buffer.position() < to) {
+            buffer.put(zeros, 0, Math.min(zeros.length, to - buffer.position()));
+        }
+    }
+
+    // ---- Recovery ----
+
+    private void recover(int historyCapacity) throws IOException {
+        RecoveryState state = new RecoveryState(historyCapacity);
+        long snapshotGeneration = -1;
+        long snapshotOffset = HEADER_SIZE;
+        if (snapshotFile.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 1 << 16))) {
+                if (in.readInt() == SNAPSHOT_MAGIC && in.readInt() == VERSION) {
+                    snapshotGeneration = in.readLong();
+                    snapshotOffset = in.readLong();
+                    state.readSnapshot(in);
+                }
+            }
+        }
+
+        if (!journalFile.isFile() || journalFile.length() < HEADER_SIZE) {
+            state.addSnapshotHistory();
+            state.finish(this);
+            resetJournal(snapshotGeneration + 1, HEADER_SIZE);
+            return;
+        }
+
+        file = new RandomAccessFile(journalFile, "rw");
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+        boolean valid = buffer.getInt(0) == JOURNAL_MAGIC && buffer.getInt(4) == VERSION;
+        long journalGeneration = valid ? buffer.getLong(8) : -1;
+        int start;
+        if (valid && journalGeneration == snapshotGeneration) {
+            start = (int) snapshotOffset;        // crashed between snapshot and journal restart
+        } else if (valid && (snapshotGeneration < 0 || journalGeneration == snapshotGeneration + 1)) {
+            start = HEADER_SIZE;
+        } else {
+            start = -1;                          // stale or foreign journal; the snapshot wins
+        }
+
+        if (start < 0) {
+            state.addSnapshotHistory();
+            state.finish(this);
+            resetJournal(Math.max(snapshotGeneration, journalGeneration) + 1, buffer.capacity());
+            return;
+        }
+
+        // Two passes: the first counts the history entries,
+        // so the second only formats the entries that fit in the history log
+        int end = state.scan(buffer, start, true);
+        state.scan(buffer, start, false);
+        state.finish(this);
+
+        // Zero whatever a torn record left behind so new records can't run into it
+        generation = journalGeneration;
+        zero(end, buffer.capacity());
+        buffer.position(end);
+    }
+
+    /** Replays snapshot and journal records into a model and the tail of the history. */
+    private static final class RecoveryState {
+        private final int historyCapacity;
+        private StackModel model;
+        private String[] snapshotHistory = new String[0];
+        private HistoryLog history;
+        private long entryIndex;      // history entries so far
+        private long keepFrom;        // first entry index that survives in the log
+        private long totalEntries;
+        private long operations;
+
+        RecoveryState(int historyCapacity) {
+            this.historyCapacity = historyCapacity;
+            this.history = new HistoryLog(historyCapacity);
+        }
+
+        void readSnapshot(DataInputStream in) throws IOException {
+            String dataType = in.readUTF();
+            int size = in.readInt();
+            StackModel snapshotModel = StackModel.forType(dataType);
+            for (int i = 0; i < size; i++) {
+                if (snapshotModel instanceof StackModel.IntStack) {
+                    ((StackModel.IntStack) snapshotModel).push(in.readInt());
+                } else if (snapshotModel instanceof StackModel.CharStack) {
+                    ((StackModel.CharStack) snapshotModel).push(in.readChar());
+                } else {
+                    ((StackModel.StringStack) snapshotModel).push(in.readUTF());
+                }
+            }
+            model = size > 0 ? snapshotModel : null;
+            snapshotHistory = new String[in.readInt()];
+            for (int i = 0; i < snapshotHistory.length; i++) {
+                snapshotHistory[i] = in.readUTF();
+            }
+        }
+
+        /**
+         * Walks records from start. With countOnly set nothing is applied; it
+         * just counts history entries. Returns the position of the end marker.
+         */
+        int scan(MappedByteBuffer buffer, int start, boolean countOnly) {
+            int limit = buffer.capacity();
+            int position = start;
+            StackModel current = model;
+            long entries = snapshotHistory.length;
+            if (!countOnly) {
+                entryIndex = 0;
+                keepFrom = Math.max(0, totalEntries - historyCapacity);
+                for (String entry : snapshotHistory) {
+                    if (keep()) addEntry(entry);
+                }
+            }
+
+            while (position < limit) {
+                byte op = buffer.get(position);
+                if (op == OP_END) break;
+                int next = recordEnd(buffer, position, op, limit);
+                if (next < 0) break;   // torn record at the end of the file
+                if (countOnly) {
+                    entries++;
+                } else {
+                    current = apply(buffer, position, op, current);
+                    operations++;
+                }
+                position = next;
+            }
+            if (countOnly) {
+                totalEntries = entries;
+            } else {
+                model = current;
+            }
+            return position;
+        }
+
+        private int recordEnd(MappedByteBuffer buffer, int position, byte op, int limit) {
+            long end;
+            switch (op) {
+                case OP_PUSH_INT: case OP_POP_MANY: end = position + 5L; break;
+                case OP_PUSH_CHAR: end = position + 3L; break;
+                case OP_PUSH_STRING:
+                    if (position + 3 > limit) return -1;
+                    end = position + 3L + buffer.getChar(position + 1);
+                    break;
+                case OP_POP: case OP_PEEK: case OP_CLEAR: end = position + 1L; break;
+                case OP_BATCH_INT: case OP_BATCH_CHAR: case OP_BATCH_STRING: {
+                    if (position + 5 > limit) return -1;
+                    int count = buffer.getInt(position + 1);
+                    if (count < 0) return -1;
+                    if (op == OP_BATCH_INT) {
+                        end = position + 5L + 4L * count;
+                    } else if (op == OP_BATCH_CHAR) {
+                        end = position + 5L + 2L * count;
+                    } else {
+                        long p = position + 5L;
+                        for (int i = 0; i < count && p + 2 <= limit; i++) {
+                            p += 2 + buffer.getChar((int) p);
+                        }
+                        end = p;
+                    }
+                    break;
+                }
+                default:
+                    return -1;
+            }
+            return end <= limit ? (int) end : -1;
+        }
+
+        private StackModel apply(MappedByteBuffer buffer, int position, byte op, StackModel current) {
+            switch (op) {
+                case OP_PUSH_INT: {
+                    current = typed(current, "Integer");
+                    int value = buffer.getInt(position + 1);
+                    ((StackModel.IntStack) current).push(value);
+                    if (keep()) addEntry(HistoryLog.pushed(Integer.toString(value)));
+                    break;
+                }
+                case OP_PUSH_CHAR: {
+                    current = typed(current, "Character");
+                    char value = buffer.getChar(position + 1);
+                    ((StackModel.CharStack) current).push(value);
+                    if (keep()) addEntry(HistoryLog.pushed(String.valueOf(value)));
+                    break;
+                }
+                case OP_PUSH_STRING: {
+                    current = typed(current, "String");
+                    String value = readUtf(buffer, position + 3, buffer.getChar(position + 1));
+                    ((StackModel.StringStack) current).push(value);
+                    if (keep()) addEntry(HistoryLog.pushed(value));
+                    break;
+                }
+                case OP_POP:
+                    if (current != null && !current.isEmpty()) {
+                        if (keep()) addEntry(HistoryLog.popped(current.toString(current.size() - 1)));
+                        current.pop();
+                    }
+                    break;
+                case OP_POP_MANY: {
+                    int count = current == null ? 0 : Math.min(buffer.getInt(position + 1), current.size());
+                    if (current != null) current.pop(count);
+                    if (keep()) addEntry(HistoryLog.batchPopped(count));
+                    break;
+                }
+                case OP_PEEK:
+                    if (keep() && current != null && !current.isEmpty()) {
+                        addEntry(HistoryLog.peeked(current.toString(current.size() - 1)));
+                    }
+                    break;
+                case OP_CLEAR:
+                    if (keep()) addEntry(HistoryLog.cleared(current == null ? 0 : current.size()));
+                    return null;
+                default: {
+                    int count = buffer.getInt(position + 1);
+                    int p = position + 5;
+                    if (op == OP_BATCH_INT) {
+                        current = typed(current, "Integer");
+                        StackModel.IntStack ints = (StackModel.IntStack) current;
+                        for (int i = 0; i < count; i++, p += 4) ints.push(buffer.getInt(p));
+                    } else if (op == OP_BATCH_CHAR) {
+                        current = typed(current, "Character");
+                        StackModel.CharStack chars = (StackModel.CharStack) current;
+                        for (int i = 0; i < count; i++, p += 2) chars.push(buffer.getChar(p));
+                    } else {
+                        current = typed(current, "String");
+                        StackModel.StringStack strings = (StackModel.StringStack) current;
+                        for (int i = 0; i < count; i++) {
+                            int length = buffer.getChar(p);
+                            strings.push(readUtf(buffer, p + 2, length));
+                            p += 2 + length;
+                        }
+                    }
+                    if (keep()) addEntry(HistoryLog.batchPushed(count));
+                    break;
+                }
+            }
+            if (current != null && current.isEmpty()) {
+                return null;   // an empty stack unlocks its data type
+            }
+            return current;
+        }
+
+        // Entries before keepFrom would be evicted from the log anyway, so skip formatting them
+        private boolean keep() {
+            return entryIndex++ >= keepFrom;
+        }
+
+        private void addEntry(String entry) {
+            history.add(entry);
+        }
+
+        private static StackModel typed(StackModel current, String dataType) {
+            return current != null ? current : StackModel.forType(dataType);
+        }
+
+        private static String readUtf(MappedByteBuffer buffer, int position, int length) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) bytes[i] = buffer.get(position + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Used when there is no journal to replay on top of the snapshot. */
+        void addSnapshotHistory() {
+            for (String entry : snapshotHistory) addEntry(entry);
+        }
+
+        void finish(OperationJournal journal) {
+            journal.recoveredModel = model;
+            journal.recoveredHistory = history.toArray();
+            journal.recoveredOperations = operations;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Rolling paint and event-dispatch statistics drawn in a corner of the stack
+ * panel. Frame times go into a fixed ring of samples; while the overlay is
+ * shown, a daemon thread posts a probe to the event queue every
+ * PROBE_INTERVAL milliseconds to measure how long events wait there. Nothing
+ * is recorded or probed while it is hidden.
+ */
+public class PerformanceOverlay {
+    static final int WIDTH = 330;
+    static final int HEIGHT = 128;
+    private static final int SAMPLES = 240;
+    private static final int PROBE_INTERVAL = 100;
+    private static final int LATENCY_WINDOW = 10;
+    // Upper bounds of the histogram buckets in milliseconds; the last one is open
+    private static final double[] BUCKET_LIMITS = {1, 2, 4, 8, 16, 33};
+    private static final String[] BUCKET_LABELS = {"<1", "<2", "<4", "<8", "<16", "<33", "33+"};
+    // Frames from this bucket on miss a 60 Hz refresh
+    private static final int SLOW_BUCKET = 5;
+
+    private final long[] frameNanos = new long[SAMPLES];
+    private final long[] sorted = new long[SAMPLES];
+    private final int[] buckets = new int[BUCKET_LABELS.length];
+    private int frameCount = 0;
+    private int frameHead = 0;
+    private int lastRowsPainted = 0;
+
+    private final long[] latencyNanos = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private int latencyHead = 0;
+
+    private final Font font = new Font(Font.MONOSPACED, Font.BOLD, 12);
+    private final Color background = new Color(0, 0, 0, 170);
+    private final Color barColor = new Color(80, 250, 123);
+    private final Color slowBarColor = new Color(255, 85, 85);
+    private java.util.Timer prober;
+
+    /** Records one paintComponent call; on the EDT. */
+    public void recordFrame(long nanos, int rowsPainted) {
+        frameNanos[frameHead] = nanos;
+        frameHead = (frameHead + 1) % SAMPLES;
+        if (frameCount < SAMPLES) frameCount++;
+        lastRowsPainted = rowsPainted;
+    }
+
+    /** Starts posting event-queue probes; onSample runs on the EDT after each one. */
+    public void start(Runnable onSample) {
+        if (prober != null) return;
+        prober = new java.util.Timer("EDT Latency Probe", true);
+        prober.scheduleAtFixedRate(new java.util.TimerTask() {
+            @Override
+            public void run() {
+                long posted = System.nanoTime();
+                EventQueue.invokeLater(() -> {
+                    recordLatency(System.nanoTime() - posted);
+                    onSample.run();
+                });
+            }
+        }, PROBE_INTERVAL, PROBE_INTERVAL);
+    }
+
+    public void stop() {
+        if (prober != null) {
+            prober.cancel();
+            prober = null;
+        }
+    }
+
+    private void recordLatency(long nanos) {
+        latencyNanos[latencyHead] = nanos;
+        latencyHead = (latencyHead + 1) % LATENCY_WINDOW;
+        if (latencyCount < LATENCY_WINDOW) latencyCount++;
+    }
+
+    public void paint(Graphics2D g2, Rectangle bounds, AnimationClock clock) {
+        g2.setColor(background);
+        g2.fillRoundRect(bounds.x, bounds.y, bounds.width, bounds.height, 15, 15);
+        g2.setFont(font);
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        FontMetrics metrics = g2.getFontMetrics();
+        int lineHeight = metrics.getHeight();
+        int x = bounds.x + 10;
+        int y = bounds.y + 5 + metrics.getAscent();
+
+        // Percentiles over the ring, sorted in a reused array
+        System.arraycopy(frameNanos, 0, sorted, 0, frameCount);
+        Arrays.sort(sorted, 0, frameCount);
+        Arrays.fill(buckets, 0);
+        for (int i = 0; i < frameCount; i++) {
+            buckets[bucket(sorted[i])]++;
+        }
+        g2.setColor(Color.WHITE);
+        if (frameCount == 0) {
+            g2.drawString("Frame  no samples yet", x, y);
+        } else {
+            g2.drawString(String.format(Locale.ROOT, "Frame  p50 %.2f  p99 %.2f  max %.2f ms",
+                    millis(percentile(0.50)), millis(percentile(0.99)), millis(sorted[frameCount - 1])), x, y);
+        }
+
+        // Histogram: one bar per bucket, scaled to the fullest bucket
+        int barTop = y + 6;
+        int barHeight = 36;
+        int barWidth = (bounds.width - 20) / buckets.length;
+        int fullest = 1;
+        for (int count : buckets) fullest = Math.max(fullest, count);
+        for (int i = 0; i < buckets.length; i++) {
+            int height = buckets[i] * barHeight / fullest;
+            g2.setColor(i < SLOW_BUCKET ? barColor : slowBarColor);
+            g2.fillRect(x + i * barWidth + 2, barTop + barHeight - height, barWidth - 4, height);
+            g2.setColor(Color.LIGHT_GRAY);
+            g2.drawString(BUCKET_LABELS[i], x + i * barWidth + 2, barTop + barHeight + metrics.getAscent());
+        }
+        y = barTop + barHeight + metrics.getAscent() + lineHeight;
+
+        g2.setColor(Color.WHITE);
+        double requested = 1000.0 / clock.getFrameDelay();
+        double measured = clock.getMeasuredFrameRate();
+        if (measured > 0) {
+            g2.drawString(String.format(Locale.ROOT, "Animation  %.1f of %.1f fps", measured, requested), x, y);
+        } else {
+            g2.drawString(String.format(Locale.ROOT, "Animation  idle (%.1f fps requested)", requested), x, y);
+        }
+        y += lineHeight;
+
+        long last = 0;
+        long max = 0;
+        for (int i = 0; i < latencyCount; i++) {
+            max = Math.max(max, latencyNanos[i]);
+        }
+        if (latencyCount > 0) {
+            last = latencyNanos[(latencyHead + LATENCY_WINDOW - 1) % LATENCY_WINDOW];
+        }
+        g2.drawString(String.format(Locale.ROOT, "EDT latency  %.2f ms (max %.2f in 1 s)", millis(last), millis(max)), x, y);
+        y += lineHeight;
+        g2.drawString("Painted  " + lastRowsPainted + " rows last frame", x, y);
+    }
+
+    private long percentile(double fraction) {
+        int index = (int) Math.ceil(fraction * frameCount) - 1;
+        return sorted[Math.max(0, Math.min(frameCount - 1, index))];
+    }
+
+    private static int bucket(long nanos) {
+        double ms = millis(nanos);
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            if (ms < BUCKET_LIMITS[i]) return i;
+        }
+        return BUCKET_LIMITS.length;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
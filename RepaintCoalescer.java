@@ -0,0 +1,65 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects dirty rectangles and paints them once per event-queue cycle.
+ * Unlike JComponent.repaint(Rectangle), which unions every region of a
+ * component into one bounding box, disjoint regions stay separate here, so
+ * the top cell and the stack base of a tall stack don't repaint everything
+ * in between.
+ */
+public class RepaintCoalescer {
+    private final Map<JComponent, List<Rectangle>> pending = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
+    public void add(JComponent component, Rectangle region) {
+        if (region.isEmpty()) return;
+        List<Rectangle> regions = pending.get(component);
+        if (regions == null) {
+            regions = new ArrayList<>(4);
+            pending.put(component, regions);
+        }
+        merge(regions, new Rectangle(region));
+        if (!flushScheduled) {
+            flushScheduled = true;
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    // Touching or overlapping regions are folded together; repeat until stable
+    private static void merge(List<Rectangle> regions, Rectangle region) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size(); i++) {
+                Rectangle existing = regions.get(i);
+                if (existing.x <= region.x + region.width && region.x <= existing.x + existing.width
+                        && existing.y <= region.y + region.height && region.y <= existing.y + existing.height) {
+                    region.add(existing);
+                    regions.remove(i);
+                    merged = true;
+                    break;
+                }
+            }
+        }
+        regions.add(region);
+    }
+
+    public void flush() {
+        flushScheduled = false;
+        if (pending.isEmpty()) return;
+        List<Map.Entry<JComponent, List<Rectangle>>> entries = new ArrayList<>(pending.entrySet());
+        pending.clear();
+        for (Map.Entry<JComponent, List<Rectangle>> entry : entries) {
+            JComponent component = entry.getKey();
+            if (!component.isShowing()) continue;
+            for (Rectangle region : entry.getValue()) {
+                component.paintImmediately(region);
+            }
+        }
+    }
+}
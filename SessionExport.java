@@ -0,0 +1,538 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders a script of stack operations (the StackCli format) to a PNG
+ * sequence or an animated GIF, frame by frame through the same StackPanel
+ * painting as the window. Every version of the session is kept on a
+ * VersionTimeline, so any frame can be drawn on its own: frames are split
+ * into ranges painted in parallel on a fork-join pool, each worker with its
+ * own offscreen panel and a manual AnimationClock set to the frame's time.
+ *
+ * Each operation gets STEP_FRAMES frames: the same fade, push arrow or peek
+ * highlight as in the window, followed by a short pause.
+ */
+public class SessionExport {
+    private static final int STEP_FRAMES = StackVisualizer.ANIMATION_STEPS + 5;
+    private static final int DEFAULT_FRAME_DELAY = 30;
+    private static final int DEFAULT_WIDTH = 900;
+    private static final int DEFAULT_HEIGHT = 600;
+    // Frames painted by one task before it stops splitting
+    private static final int TASK_FRAMES = 8;
+    // GIF frames are kept in memory until written, this many at a time
+    private static final int GIF_CHUNK_FRAMES = 256;
+    // The final stack is drawn whole, scaled down to fit this many pixels
+    private static final int SNAPSHOT_WIDTH = 300;
+    private static final long SNAPSHOT_MAX_PIXELS = 64L << 20;
+
+    private enum Kind { PUSH, POP, PEEK, STILL }
+
+    /** One operation, drawn between two versions of the stack. */
+    private static final class Step {
+        final Kind kind;
+        final int before;
+        final int after;
+
+        Step(Kind kind, int before, int after) {
+            this.kind = kind;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    private final VersionTimeline timeline;
+    private final List<Step> steps;
+    private final int width;
+    private final int height;
+    private final int frameDelay;
+    private final boolean darkMode;
+    private final ThreadLocal<Renderer> renderers = ThreadLocal.withInitial(Renderer::new);
+
+    SessionExport(VersionTimeline timeline, List<Step> steps, int width, int height, int frameDelay, boolean darkMode) {
+        this.timeline = timeline;
+        this.steps = steps;
+        this.width = width;
+        this.height = height;
+        this.frameDelay = frameDelay;
+        this.darkMode = darkMode;
+    }
+
+    public int getFrameCount() {
+        return steps.size() * STEP_FRAMES;
+    }
+
+    // ---- Recording ----
+
+    /** Runs script through a StackEngine and keeps every version; rejected operations are skipped. */
+    static SessionExport record(BufferedReader script, int width, int height, int frameDelay, boolean darkMode)
+            throws IOException {
+        StackEngine engine = new StackEngine(new HistoryLog(StackEngine.DEFAULT_HISTORY_CAPACITY), null);
+        // Every version stays reachable, so frames can be painted in any order
+        engine.enableTimeline(Integer.MAX_VALUE, Long.MAX_VALUE);
+        VersionTimeline timeline = engine.getTimeline();
+        List<Step> steps = new ArrayList<>();
+        StackCli cli = new StackCli(engine) {
+            private int lastVersion = timeline.getCurrentVersion();
+
+            @Override
+            void executed(String command, String value) {
+                int version = timeline.getCurrentVersion();
+                if (command.equals("peek")) {
+                    steps.add(new Step(Kind.PEEK, version, version));
+                } else if (version != lastVersion) {
+                    Kind kind = command.equals("push") ? Kind.PUSH : command.equals("pop") ? Kind.POP : Kind.STILL;
+                    steps.add(new Step(kind, lastVersion, version));
+                }
+                lastVersion = version;
+            }
+        };
+        if (!cli.run(script)) {
+            throw new IllegalArgumentException("Script stopped at an unknown command");
+        }
+        return new SessionExport(timeline, steps, width, height, frameDelay, darkMode);
+    }
+
+    // ---- Rendering ----
+
+    /**
+     * One worker's offscreen panel, clock and image. A panel draws one step at
+     * a time; consecutive frames of the same step only move the clock.
+     */
+    private final class Renderer {
+        final AnimationClock clock = AnimationClock.manual(frameDelay);
+        final StackPanel panel = new StackImageRenderer.OffscreenPanel(clock);
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Quantizer quantizer = new Quantizer();
+        Step step;
+        int viewY;
+
+        Renderer() {
+            panel.setBackground(darkMode ? StackVisualizer.DARK_BG : StackVisualizer.LIGHT_BG);
+            panel.setDarkMode(darkMode);
+        }
+
+        BufferedImage render(int frame) {
+            Step frameStep = steps.get(frame / STEP_FRAMES);
+            if (frameStep != step) {
+                show(frameStep);
+            }
+            clock.tick(frame % STEP_FRAMES * frameDelay * 1_000_000L);
+            Graphics2D g = image.createGraphics();
+            g.translate(0, -viewY);
+            g.setClip(0, viewY, width, height);
+            panel.paint(g);
+            g.dispose();
+            return image;
+        }
+
+        // Same animations as the window starts for the operation, beginning at time 0
+        private void show(Step next) {
+            step = next;
+            panel.cancelAnimations();
+            clock.tick(0);
+            StackModel model = timeline.view(next.after);
+            int sizeBefore = timeline.getSize(next.before);
+            int rows = Math.max(sizeBefore, model.size());
+            // Sized directly instead of by preferred size, so reused panels lay out the same
+            panel.setModel(model);
+            panel.setSize(width, Math.max(height, (rows + 2) * StackVisualizer.ELEMENT_HEIGHT + 40));
+            int top = next.kind == Kind.POP ? sizeBefore - 1 : model.size() - 1;
+            switch (next.kind) {
+                case PUSH:
+                    panel.animatePush(top, getAnimationDuration());
+                    panel.showPushArrow(top, StackVisualizer.PUSH_ARROW_DURATION);
+                    break;
+                case POP:
+                    panel.animatePop(top, timeline.view(next.before).toString(top), getAnimationDuration());
+                    break;
+                case PEEK:
+                    panel.showPeekHighlight(top, StackVisualizer.HIGHLIGHT_DURATION);
+                    break;
+                default:
+                    break;
+            }
+            // Scrolled like the window: the top row just inside the view
+            int maxY = panel.getHeight() - height;
+            viewY = Math.max(0, Math.min(maxY, panel.getRowBounds(Math.max(0, top)).y - 20));
+        }
+    }
+
+    private long getAnimationDuration() {
+        return (long) StackVisualizer.ANIMATION_STEPS * frameDelay;
+    }
+
+    /** Paints frames [from, to), splitting the range across the pool. */
+    private abstract class FrameTask extends RecursiveAction {
+        final int from;
+        final int to;
+
+        FrameTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        abstract FrameTask split(int from, int to);
+
+        abstract void frame(int frame, Renderer renderer) throws IOException;
+
+        @Override
+        protected void compute() {
+            if (to - from > TASK_FRAMES) {
+                int middle = (from + to) >>> 1;
+                invokeAll(split(from, middle), split(middle, to));
+                return;
+            }
+            Renderer renderer = renderers.get();
+            try {
+                for (int frame = from; frame < to; frame++) {
+                    frame(frame, renderer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Writes frame-00000.png, frame-00001.png, ... into directory. */
+    public void writePngs(File directory, ForkJoinPool pool) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        final class PngTask extends FrameTask {
+            PngTask(int from, int to) {
+                super(from, to);
+            }
+
+            @Override
+            FrameTask split(int from, int to) {
+                return new PngTask(from, to);
+            }
+
+            @Override
+            void frame(int frame, Renderer renderer) throws IOException {
+                File file = new File(directory, String.format(Locale.ROOT, "frame-%05d.png", frame));
+                ImageIO.write(renderer.render(frame), "png", file);
+            }
+        }
+        invoke(pool, new PngTask(0, getFrameCount()));
+    }
+
+    /**
+     * Writes an animated GIF that loops forever. Frames are painted and
+     * reduced to 256 colors in parallel, one chunk ahead of the writer.
+     */
+    public void writeGif(File file, ForkJoinPool pool) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            if (out == null) throw new IOException("Cannot write " + file);
+            writer.setOutput(out);
+            writer.prepareWriteSequence(null);
+            int frameCount = getFrameCount();
+            ForkJoinTask<BufferedImage[]> next = submitGifChunk(pool, 0);
+            for (int start = 0; start < frameCount; start += GIF_CHUNK_FRAMES) {
+                BufferedImage[] chunk = join(next);
+                next = start + GIF_CHUNK_FRAMES < frameCount ? submitGifChunk(pool, start + GIF_CHUNK_FRAMES) : null;
+                for (int i = 0; i < chunk.length; i++) {
+                    writer.writeToSequence(new IIOImage(chunk[i], null, gifMetadata(writer, chunk[i], start + i == 0)),
+                            null);
+                }
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /** Writes the stack as the script left it, every row in one PNG, painted in bands on pool. */
+    public void writeSnapshot(File file, ForkJoinPool pool) throws IOException {
+        StackModel model = timeline.view(timeline.getLastVersion());
+        double scale = StackImageRenderer.fitScale(SNAPSHOT_WIDTH, model.size(), SNAPSHOT_MAX_PIXELS);
+        BufferedImage image = new StackImageRenderer(SNAPSHOT_WIDTH, scale, darkMode).render(model, pool);
+        ImageIO.write(image, "png", file);
+    }
+
+    private ForkJoinTask<BufferedImage[]> submitGifChunk(ForkJoinPool pool, int start) {
+        BufferedImage[] chunk = new BufferedImage[Math.min(GIF_CHUNK_FRAMES, getFrameCount() - start)];
+        final class GifTask extends FrameTask {
+            GifTask(int from, int to) {
+                super(from, to);
+            }
+
+            @Override
+            FrameTask split(int from, int to) {
+                return new GifTask(from, to);
+            }
+
+            @Override
+            void frame(int frame, Renderer renderer) {
+                chunk[frame - start] = renderer.quantizer.toIndexed(renderer.render(frame));
+            }
+        }
+        return pool.submit(() -> {
+            new GifTask(start, start + chunk.length).invoke();
+            return chunk;
+        });
+    }
+
+    private IIOMetadata gifMetadata(ImageWriter writer, BufferedImage image, boolean first) throws IOException {
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), null);
+        String format = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = new IIOMetadataNode(format);
+        IIOMetadataNode control = new IIOMetadataNode("GraphicControlExtension");
+        control.setAttribute("disposalMethod", "none");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", "FALSE");
+        control.setAttribute("transparentColorIndex", "0");
+        // GIF delays are in hundredths of a second
+        control.setAttribute("delayTime", Integer.toString(Math.max(1, (frameDelay + 5) / 10)));
+        root.appendChild(control);
+        if (first) {
+            IIOMetadataNode extensions = new IIOMetadataNode("ApplicationExtensions");
+            IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+            loop.setAttribute("applicationID", "NETSCAPE");
+            loop.setAttribute("authenticationCode", "2.0");
+            loop.setUserObject(new byte[] {1, 0, 0});
+            extensions.appendChild(loop);
+            root.appendChild(extensions);
+        }
+        metadata.mergeTree(format, root);
+        return metadata;
+    }
+
+    // Rethrows what a worker threw, unwrapped
+    private static void invoke(ForkJoinPool pool, ForkJoinTask<?> task) throws IOException {
+        join(pool.submit(task));
+    }
+
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Reduces a frame to at most 256 colors for GIF. Colors are counted in
+     * 15-bit buckets; the most common buckets become the palette, and every
+     * other bucket maps to its nearest palette color. Frames are mostly a few
+     * flat colors, so antialiased edges are the only ones approximated.
+     */
+    static final class Quantizer {
+        private static final int BUCKETS = 1 << 15;
+        private final int[] counts = new int[BUCKETS];
+        private final long[] red = new long[BUCKETS];
+        private final long[] green = new long[BUCKETS];
+        private final long[] blue = new long[BUCKETS];
+        private final int[] lookup = new int[BUCKETS];
+        private final long[] ranked = new long[BUCKETS];
+        private int[] pixels = new int[0];
+
+        BufferedImage toIndexed(BufferedImage image) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            if (pixels.length != width * height) pixels = new int[width * height];
+            image.getRGB(0, 0, width, height, pixels, 0, width);
+            Arrays.fill(counts, 0);
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+            for (int rgb : pixels) {
+                int bucket = bucket(rgb);
+                counts[bucket]++;
+                red[bucket] += (rgb >> 16) & 0xFF;
+                green[bucket] += (rgb >> 8) & 0xFF;
+                blue[bucket] += rgb & 0xFF;
+            }
+
+            // Most common buckets first: count in the high bits, bucket in the low ones
+            int used = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                if (counts[bucket] > 0) ranked[used++] = (long) counts[bucket] << 15 | bucket;
+            }
+            Arrays.sort(ranked, 0, used);
+            int colors = Math.min(256, used);
+            byte[] r = new byte[colors];
+            byte[] g = new byte[colors];
+            byte[] b = new byte[colors];
+            for (int i = 0; i < colors; i++) {
+                int bucket = (int) (ranked[used - 1 - i] & (BUCKETS - 1));
+                r[i] = (byte) (red[bucket] / counts[bucket]);
+                g[i] = (byte) (green[bucket] / counts[bucket]);
+                b[i] = (byte) (blue[bucket] / counts[bucket]);
+                lookup[bucket] = i;
+            }
+            for (int i = colors; i < used; i++) {
+                int bucket = (int) (ranked[used - 1 - i] & (BUCKETS - 1));
+                lookup[bucket] = nearest(bucket, r, g, b);
+            }
+
+            BufferedImage indexed = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED,
+                    new IndexColorModel(8, colors, r, g, b));
+            byte[] data = ((DataBufferByte) indexed.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < pixels.length; i++) {
+                data[i] = (byte) lookup[bucket(pixels[i])];
+            }
+            return indexed;
+        }
+
+        private static int bucket(int rgb) {
+            return (rgb >> 9 & 0x7C00) | (rgb >> 6 & 0x03E0) | (rgb >> 3 & 0x001F);
+        }
+
+        private int nearest(int bucket, byte[] r, byte[] g, byte[] b) {
+            int red = (int) (this.red[bucket] / counts[bucket]);
+            int green = (int) (this.green[bucket] / counts[bucket]);
+            int blue = (int) (this.blue[bucket] / counts[bucket]);
+            int best = 0;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int i = 0; i < r.length; i++) {
+                int dr = (r[i] & 0xFF) - red;
+                int dg = (g[i] & 0xFF) - green;
+                int db = (b[i] & 0xFF) - blue;
+                int distance = dr * dr + dg * dg + db * db;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = i;
+                }
+            }
+            return best;
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java SessionExport [--png DIR | --gif FILE] [--snapshot FILE] [--width N] [--height N]");
+        System.err.println("       [--frame-delay MS] [--threads N] [--dark] [SCRIPT|-]");
+        System.err.println("Renders a StackCli script; reads it from stdin when SCRIPT is - or missing.");
+        System.err.println("--snapshot draws the final stack, every row, as one PNG.");
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Nothing is shown, so no display is needed
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        String scriptPath = "-";
+        File pngDirectory = null;
+        File gifFile = null;
+        File snapshotFile = null;
+        int width = DEFAULT_WIDTH;
+        int height = DEFAULT_HEIGHT;
+        int frameDelay = DEFAULT_FRAME_DELAY;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean dark = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--png":
+                        pngDirectory = new File(args[++i]);
+                        break;
+                    case "--gif":
+                        gifFile = new File(args[++i]);
+                        break;
+                    case "--snapshot":
+                        snapshotFile = new File(args[++i]);
+                        break;
+                    case "--width":
+                        width = Integer.parseInt(args[++i]);
+                        break;
+                    case "--height":
+                        height = Integer.parseInt(args[++i]);
+                        break;
+                    case "--frame-delay":
+                        frameDelay = Integer.parseInt(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--dark":
+                        dark = true;
+                        break;
+                    case "-h":
+                    case "--help":
+                        usage();
+                        return;
+                    default:
+                        scriptPath = args[i];
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            usage();
+            System.exit(2);
+        }
+        boolean frames = pngDirectory != null || gifFile != null;
+        if ((pngDirectory != null && gifFile != null) || (!frames && snapshotFile == null) || width < 1 || height < 1 || frameDelay < 1 || threads < 1) {
+            usage();
+            System.exit(2);
+        }
+
+        InputStream in = scriptPath.equals("-") ? System.in : new FileInputStream(scriptPath);
+        SessionExport export;
+        try (BufferedReader script = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            export = record(script, width, height, frameDelay, dark);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (frames && export.getFrameCount() == 0) {
+            System.err.println("Nothing to export: the script changed nothing");
+            System.exit(1);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        try {
+            if (pngDirectory != null) {
+                export.writePngs(pngDirectory, pool);
+            } else if (gifFile != null) {
+                export.writeGif(gifFile, pool);
+            }
+            if (frames) {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println(String.format(Locale.ROOT,
+                        "Exported %,d frames of %,d operations in %.2f s (%,.1f frames/s on %d threads)",
+                        export.getFrameCount(), export.steps.size(), seconds, export.getFrameCount() / seconds, threads));
+            }
+            if (snapshotFile != null) {
+                start = System.nanoTime();
+                export.writeSnapshot(snapshotFile, pool);
+                System.out.println(String.format(Locale.ROOT, "Snapshot written in %.2f s", (System.nanoTime() - start) / 1e9));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of pre-rendered stack cells. Each distinct (text, theme, state)
+ * combination is painted once into a compatible translucent image and then
+ * blitted. Lookups use a reusable probe key and evicted images are recycled,
+ * so a steady-state frame allocates nothing.
+ */
+public class SpriteCache {
+    public static final int STATE_NORMAL = 0;
+    public static final int STATE_ACCENT = 1;
+
+    /** Paints a cell at (x, y); the sprite is padded so shadow and border fit. */
+    public interface CellPainter {
+        void paintCell(Graphics2D g2, int x, int y, char[] text, int length, boolean darkMode, int state);
+    }
+
+    private final int maxEntries;
+    private final int spriteWidth, spriteHeight, padding;
+    private final CellPainter painter;
+    private final LinkedHashMap<Key, Image> sprites;
+    private final Key probe = new Key();
+    private GraphicsConfiguration graphicsConfiguration;
+    private int hits, misses;
+
+    public SpriteCache(int maxEntries, int spriteWidth, int spriteHeight, int padding, CellPainter painter) {
+        this.maxEntries = maxEntries;
+        this.spriteWidth = spriteWidth;
+        this.spriteHeight = spriteHeight;
+        this.padding = padding;
+        this.painter = painter;
+        this.sprites = new LinkedHashMap<>(maxEntries * 4 / 3 + 1, 0.75f, true);
+    }
+
+    public int getPadding() {
+        return padding;
+    }
+
+    /** Returns the sprite for a cell, rendering it on a miss. Draw it at (x - padding, y - padding). */
+    public Image getSprite(char[] text, int length, boolean darkMode, int state, GraphicsConfiguration gc) {
+        if (gc != graphicsConfiguration) {
+            invalidate();
+            graphicsConfiguration = gc;
+        }
+        probe.set(text, length, darkMode, state);
+        Image sprite = sprites.get(probe);
+        if (sprite != null) {
+            hits++;
+            return sprite;
+        }
+        misses++;
+
+        sprite = recycleEldest();
+        if (sprite == null) {
+            sprite = gc != null
+                    ? gc.createCompatibleImage(spriteWidth, spriteHeight, Transparency.TRANSLUCENT)
+                    : new BufferedImage(spriteWidth, spriteHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        Graphics2D g2 = (Graphics2D) sprite.getGraphics();
+        g2.setComposite(AlphaComposite.Clear);
+        g2.fillRect(0, 0, spriteWidth, spriteHeight);
+        g2.setComposite(AlphaComposite.SrcOver);
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        painter.paintCell(g2, padding, padding, text, length, darkMode, state);
+        g2.dispose();
+
+        sprites.put(probe.copy(), sprite);
+        return sprite;
+    }
+
+    private Image recycleEldest() {
+        if (sprites.size() < maxEntries) return null;
+        Iterator<Map.Entry<Key, Image>> it = sprites.entrySet().iterator();
+        Image eldest = it.next().getValue();
+        it.remove();
+        return eldest;
+    }
+
+    /** Drops every sprite, e.g. after a theme change. */
+    public void invalidate() {
+        for (Image sprite : sprites.values()) {
+            sprite.flush();
+        }
+        sprites.clear();
+    }
+
+    public int size() {
+        return sprites.size();
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    private static final class Key {
+        private char[] text = new char[32];
+        private int length;
+        private boolean darkMode;
+        private int state;
+        private int hash;
+
+        void set(char[] text, int length, boolean darkMode, int state) {
+            if (this.text.length < length) {
+                this.text = new char[length];
+            }
+            System.arraycopy(text, 0, this.text, 0, length);
+            this.length = length;
+            this.darkMode = darkMode;
+            this.state = state;
+            int h = 1;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + text[i];
+            }
+            hash = (h * 31 + state) * 2 + (darkMode ? 1 : 0);
+        }
+
+        Key copy() {
+            Key key = new Key();
+            key.text = Arrays.copyOf(text, length);
+            key.length = length;
+            key.darkMode = darkMode;
+            key.state = state;
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            if (hash != other.hash || length != other.length || darkMode != other.darkMode || state != other.state) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (text[i] != other.text[i]) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Micro-benchmarks for the model, input parsing and offscreen painting.
+ * Each benchmark is warmed up, then timed over several fixed-length
+ * iterations; the report shows time per operation and bytes allocated per
+ * operation by the measuring thread.
+ *
+ *   java -Djava.awt.headless=true StackBenchmark [REGEX...]
+ *
+ * Only benchmarks whose name matches one of the regexes are run. Tuning:
+ * -Dbench.warmup (iterations, default 3), -Dbench.iterations (default 5),
+ * -Dbench.time (milliseconds per iteration, default 500).
+ */
+public class StackBenchmark {
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("bench.warmup", 3);
+    private static final int MEASURED_ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final long ITERATION_NANOS = Integer.getInteger("bench.time", 500) * 1_000_000L;
+    private static final int[] PAINT_DEPTHS = {20, 1_000, 100_000, 1_000_000};
+    private static final int VIEW_WIDTH = 900;
+    private static final int VIEW_HEIGHT = 600;
+    private static final int[] WORKSPACE_STACKS = {1, 4, 16};
+    // Room for each stack without scrolling sideways
+    private static final int WORKSPACE_SLOT_WIDTH = 340;
+    private static final int MODEL_DEPTH = 1_000;
+    private static final int BULK_VALUES = 100_000;
+    private static final int FULL_RENDER_DEPTH = 1_000;
+
+    /** Runs ops operations of a benchmark; results go to sink so they are not optimized away. */
+    interface Body {
+        void run(int ops);
+    }
+
+    private static final class Benchmark {
+        final String name;
+        final Body body;
+        final int batch;
+        final boolean onEventThread;
+
+        Benchmark(String name, Body body, int batch, boolean onEventThread) {
+            this.name = name;
+            this.body = body;
+            this.batch = batch;
+            this.onEventThread = onEventThread;
+        }
+    }
+
+    static volatile long sink;
+
+    private final List<Benchmark> benchmarks = new ArrayList<>();
+    private final com.sun.management.ThreadMXBean allocations = allocationBean();
+
+    // ---- Model ----
+
+    private void addModelBenchmarks() {
+        StackModel.IntStack ints = (StackModel.IntStack) filled("Integer");
+        StackModel.CharStack chars = (StackModel.CharStack) filled("Character");
+        StackModel.StringStack strings = (StackModel.StringStack) filled("String");
+        String[] words = {"alpha", "bravo", "charlie", "delta"};
+
+        add("model.pushPop.Integer", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) {
+                ints.push(i);
+                acc += ints.popInt();
+            }
+            sink += acc;
+        }, 10_000);
+        // Same with min, max, sum and mode kept up to date on a deep stack
+        StackModel.IntStack aggregated = (StackModel.IntStack) StackModel.forType("Integer");
+        aggregated.pushAll(StackEngine.randomBatch("Integer", BULK_VALUES * 10, new java.util.Random(42)));
+        IntAggregates stats = aggregated.getAggregates();
+        add("model.pushPop.Integer.aggregated", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) {
+                aggregated.push(i);
+                acc += aggregated.popInt() + stats.getMode() + stats.getMin();
+            }
+            sink += acc;
+        }, 10_000);
+        add("model.pushPop.Character", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) {
+                chars.push((char) ('A' + (i & 15)));
+                acc += chars.popChar();
+            }
+            sink += acc;
+        }, 10_000);
+        add("model.pushPop.String", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) {
+                strings.push(words[i & 3]);
+                acc += strings.popString().length();
+            }
+            sink += acc;
+        }, 10_000);
+        add("model.peek.Integer", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) acc += ints.peekInt();
+            sink += acc;
+        }, 10_000);
+        add("model.peek.Character", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) acc += chars.peekChar();
+            sink += acc;
+        }, 10_000);
+        add("model.peek.String", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) acc += strings.peekString().length();
+            sink += acc;
+        }, 10_000);
+        // What the renderer does for every visible row
+        char[] buffer = new char[StackModel.MAX_STRING_LENGTH];
+        add("model.getChars.Integer", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) acc += ints.getChars(i % MODEL_DEPTH, buffer);
+            sink += acc;
+        }, 10_000);
+
+        // The off-heap String stack, whatever -Dstackvisualizer.offHeapStrings says
+        StackModel.SlabStringStack slab = new StackModel.SlabStringStack();
+        slab.pushAll(strings);
+        add("model.pushPop.String.slab", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) {
+                slab.push(words[i & 3]);
+                acc += slab.getView(slab.size() - 1).length();
+                slab.pop();
+            }
+            sink += acc;
+        }, 10_000);
+        add("model.getChars.String", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) acc += strings.getChars(i % MODEL_DEPTH, buffer);
+            sink += acc;
+        }, 10_000);
+        add("model.getChars.String.slab", ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) acc += slab.getChars(i % MODEL_DEPTH, buffer);
+            sink += acc;
+        }, 10_000);
+    }
+
+    private static StackModel filled(String dataType) {
+        StackModel model = StackModel.forType(dataType);
+        model.pushAll(StackEngine.randomBatch(dataType, MODEL_DEPTH, new java.util.Random(42)));
+        return model;
+    }
+
+    // ---- Parsing ----
+
+    private void addParseBenchmarks() {
+        addParse("Integer", "42", "-1234567", "999", "2147483647");
+        addParse("Character", "A", "z", "7", "#");
+        addParse("String", "hello", "stack visualizer", "x", "twenty characters!!");
+
+        // Bulk parsing, per value: a batch dialog's text and a value file's bytes
+        StringBuilder text = new StringBuilder();
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < BULK_VALUES; i++) {
+            text.append(random.nextInt()).append(i % 8 == 7 ? '\n' : ',');
+        }
+        java.nio.ByteBuffer bytes = java.nio.ByteBuffer.wrap(text.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        add("parse.bulk.Integer.text", ops -> {
+            for (int i = 0; i < ops; i += BULK_VALUES) sink += new ValueParser("Integer").parse(text).getValues().size();
+        }, BULK_VALUES);
+        add("parse.bulk.Integer.bytes", ops -> {
+            for (int i = 0; i < ops; i += BULK_VALUES) sink += new ValueParser("Integer").parse(bytes).getValues().size();
+        }, BULK_VALUES);
+    }
+
+    private void addParse(String dataType, String... inputs) {
+        add("parse." + dataType, ops -> {
+            long acc = 0;
+            for (int i = 0; i < ops; i++) {
+                acc += StackModel.parseValue(inputs[i & 3], dataType).hashCode();
+            }
+            sink += acc;
+        }, 10_000);
+    }
+
+    // ---- Painting ----
+
+    private void addPaintBenchmarks() {
+        for (int depth : PAINT_DEPTHS) {
+            for (boolean dark : new boolean[] {false, true}) {
+                for (boolean animating : new boolean[] {false, true}) {
+                    String name = "paint." + depth + (dark ? ".dark" : ".light") + (animating ? ".animating" : ".idle");
+                    // The panel is built lazily so filtered-out depths cost nothing
+                    benchmarks.add(new Benchmark(name, new Body() {
+                        private StackPanel panel;
+                        private int viewY;
+                        private final BufferedImage image = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+                        @Override
+                        public void run(int ops) {
+                            if (panel == null) {
+                                panel = createPanel(depth, dark, animating);
+                                // Scrolled like the window after a push: the top row just inside the view
+                                viewY = Math.max(0, panel.getRowBounds(depth - 1).y - 20);
+                            }
+                            for (int i = 0; i < ops; i++) {
+                                Graphics2D g = image.createGraphics();
+                                g.translate(0, -viewY);
+                                g.setClip(0, viewY, VIEW_WIDTH, VIEW_HEIGHT);
+                                panel.paint(g);
+                                g.dispose();
+                            }
+                            sink += image.getRGB(VIEW_WIDTH / 2, VIEW_HEIGHT / 2);
+                        }
+                    }, 1, true));
+                }
+            }
+        }
+    }
+
+    // The whole stack zoomed out to fit the view; should cost about the same at every depth
+    private void addZoomedOutBenchmarks() {
+        for (int depth : PAINT_DEPTHS) {
+            benchmarks.add(new Benchmark("paint.zoomedOut." + depth, new Body() {
+                private StackPanel panel;
+                private final BufferedImage image = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+                @Override
+                public void run(int ops) {
+                    if (panel == null) {
+                        panel = createPanel(depth, false, false);
+                        panel.setZoom((VIEW_HEIGHT - 200) / ((double) depth * StackVisualizer.ELEMENT_HEIGHT));
+                        panel.setSize(VIEW_WIDTH, panel.getPreferredSize().height);
+                    }
+                    for (int i = 0; i < ops; i++) {
+                        Graphics2D g = image.createGraphics();
+                        g.setClip(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+                        panel.paint(g);
+                        g.dispose();
+                    }
+                    sink += image.getRGB(VIEW_WIDTH / 2, VIEW_HEIGHT / 2);
+                }
+            }, 1, true));
+        }
+    }
+
+    // One frame of stacks of 1000 all animating side by side: each panel's view is painted, as the
+    // animations mark it dirty. Should grow with the cells on screen and nothing else
+    private void addWorkspaceBenchmarks() {
+        for (int stacks : WORKSPACE_STACKS) {
+            benchmarks.add(new Benchmark("paint.workspace." + stacks + ".animating", new Body() {
+                private StackWorkspace workspace;
+                private final BufferedImage image = new BufferedImage(stacks * WORKSPACE_SLOT_WIDTH, VIEW_HEIGHT,
+                        BufferedImage.TYPE_INT_RGB);
+
+                @Override
+                public void run(int ops) {
+                    if (workspace == null) workspace = createWorkspace(stacks);
+                    for (int i = 0; i < ops; i++) {
+                        Graphics2D g = image.createGraphics();
+                        for (StackWorkspace.Slot slot : workspace.getSlots()) {
+                            StackPanel panel = slot.getPanel();
+                            Rectangle view = panel.getVisibleRect();
+                            Graphics2D panelGraphics = (Graphics2D) g.create();
+                            panelGraphics.translate(SwingUtilities.convertPoint(panel, 0, 0, workspace).x, -view.y);
+                            panelGraphics.setClip(view);
+                            panel.paint(panelGraphics);
+                            panelGraphics.dispose();
+                        }
+                        g.dispose();
+                    }
+                    sink += image.getRGB(WORKSPACE_SLOT_WIDTH / 2, VIEW_HEIGHT / 2);
+                }
+            }, 1, true));
+        }
+    }
+
+    // Every row of a stack in one image, on this thread and in bands on the common pool
+    private void addFullRenderBenchmarks() {
+        StackModel model = StackModel.forType("Integer");
+        model.pushAll(StackEngine.randomBatch("Integer", FULL_RENDER_DEPTH, new java.util.Random(42)));
+        StackImageRenderer renderer = new StackImageRenderer(300, 0.5, false);
+        add("render.full." + FULL_RENDER_DEPTH + ".single", ops -> {
+            for (int i = 0; i < ops; i++) sink += renderer.render(model).getRGB(0, 0);
+        }, 1);
+        add("render.full." + FULL_RENDER_DEPTH + ".banded", ops -> {
+            for (int i = 0; i < ops; i++) {
+                sink += renderer.render(model, java.util.concurrent.ForkJoinPool.commonPool()).getRGB(0, 0);
+            }
+        }, 1);
+    }
+
+    // Top of the stack in view, as after a push; animations are long enough to outlast the run
+    private static StackPanel createPanel(int depth, boolean dark, boolean animating) {
+        StackModel model = StackModel.forType("Integer");
+        model.pushAll(StackEngine.randomBatch("Integer", depth, new java.util.Random(42)));
+        AnimationClock clock = new AnimationClock(16);
+        StackPanel panel = new StackPanel(model, clock, new RepaintCoalescer());
+        panel.setSize(VIEW_WIDTH, VIEW_HEIGHT);
+        panel.stackResized();
+        panel.setSize(VIEW_WIDTH, panel.getPreferredSize().height);
+        panel.setBackground(dark ? StackVisualizer.DARK_BG : StackVisualizer.LIGHT_BG);
+        panel.setDarkMode(dark);
+        if (animating) {
+            long duration = 24L * 60 * 60 * 1000;
+            int top = depth - 1;
+            panel.animatePush(top, duration);
+            panel.animatePop(top - 1, model.toString(top - 1), duration);
+            panel.showPushArrow(top, duration);
+            panel.showPeekHighlight(top - 2, duration);
+        }
+        return panel;
+    }
+
+    private static StackWorkspace createWorkspace(int stacks) {
+        StackWorkspace workspace = new StackWorkspace(new AnimationClock(16), new RepaintCoalescer());
+        long duration = 24L * 60 * 60 * 1000;
+        for (int i = 0; i < stacks; i++) {
+            StackEngine engine = new StackEngine(new HistoryLog(10), null);
+            engine.pushAll(StackEngine.randomBatch("Integer", 1_000, new java.util.Random(i)));
+            StackPanel panel = workspace.add(engine).getPanel();
+            panel.animatePush(999, duration);
+            panel.showPushArrow(999, duration);
+        }
+        // Not displayable, so lay out by hand and scroll each stack to its top
+        workspace.setSize(stacks * WORKSPACE_SLOT_WIDTH, VIEW_HEIGHT);
+        layOut(workspace);
+        for (StackWorkspace.Slot slot : workspace.getSlots()) {
+            StackPanel panel = slot.getPanel();
+            panel.stackResized();
+            panel.setSize(panel.getParent().getWidth(), panel.getPreferredSize().height);
+            ((JViewport) panel.getParent()).setViewPosition(new Point(0, Math.max(0, panel.getRowBounds(999).y - 20)));
+        }
+        return workspace;
+    }
+
+    private static void layOut(Container container) {
+        container.doLayout();
+        for (Component child : container.getComponents()) {
+            if (child instanceof Container) layOut((Container) child);
+        }
+    }
+
+    // ---- Harness ----
+
+    private void add(String name, Body body, int batch) {
+        benchmarks.add(new Benchmark(name, body, batch, false));
+    }
+
+    private void runAll(List<Pattern> filters) throws InterruptedException, InvocationTargetException {
+        System.out.println(String.format(Locale.ROOT, "%-36s %14s %10s %14s", "Benchmark", "ns/op", "error", "B/op"));
+        for (Benchmark benchmark : benchmarks) {
+            if (!matches(benchmark.name, filters)) continue;
+            if (benchmark.onEventThread) {
+                // Swing components are painted on the EDT, which also keeps the clock from ticking mid-run
+                SwingUtilities.invokeAndWait(() -> measure(benchmark));
+            } else {
+                measure(benchmark);
+            }
+        }
+    }
+
+    private static boolean matches(String name, List<Pattern> filters) {
+        if (filters.isEmpty()) return true;
+        for (Pattern filter : filters) {
+            if (filter.matcher(name).find()) return true;
+        }
+        return false;
+    }
+
+    private void measure(Benchmark benchmark) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(benchmark);
+        }
+        double[] nanosPerOp = new double[MEASURED_ITERATIONS];
+        double bytesPerOp = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long ops = iteration(benchmark);
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            nanosPerOp[i] = elapsed / (double) ops;
+            bytesPerOp += allocated / (double) ops / MEASURED_ITERATIONS;
+        }
+
+        double mean = 0;
+        for (double value : nanosPerOp) mean += value / nanosPerOp.length;
+        double variance = 0;
+        for (double value : nanosPerOp) variance += (value - mean) * (value - mean) / Math.max(1, nanosPerOp.length - 1);
+        String bytes = allocations == null ? "n/a" : String.format(Locale.ROOT, "%.1f", bytesPerOp);
+        System.out.println(String.format(Locale.ROOT, "%-36s %14.2f %10.2f %14s",
+                benchmark.name, mean, Math.sqrt(variance), bytes));
+    }
+
+    // Runs whole batches until the iteration time is used up; returns the operation count
+    private static long iteration(Benchmark benchmark) {
+        long ops = 0;
+        long end = System.nanoTime() + ITERATION_NANOS;
+        do {
+            benchmark.body.run(benchmark.batch);
+            ops += benchmark.batch;
+        } while (System.nanoTime() < end);
+        return ops;
+    }
+
+    // Null if this JVM can't count allocated bytes per thread
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported()) {
+                hotspot.setThreadAllocatedMemoryEnabled(true);
+                return hotspot;
+            }
+        }
+        return null;
+    }
+
+    private long allocatedBytes() {
+        return allocations == null ? 0 : allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Pattern> filters = new ArrayList<>();
+        for (String arg : args) {
+            filters.add(Pattern.compile(arg));
+        }
+        StackBenchmark harness = new StackBenchmark();
+        harness.addModelBenchmarks();
+        harness.addParseBenchmarks();
+        harness.addPaintBenchmarks();
+        harness.addZoomedOutBenchmarks();
+        harness.addWorkspaceBenchmarks();
+        harness.addFullRenderBenchmarks();
+        System.out.println(String.format(Locale.ROOT, "%d warmup + %d x %d ms iterations, %s",
+                WARMUP_ITERATIONS, MEASURED_ITERATIONS, ITERATION_NANOS / 1_000_000, System.getProperty("java.vm.name")));
+        harness.runAll(filters);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Runs a stack workload without a display. Reads one operation per line from
+ * a script file or stdin, applies it through the same StackEngine as the
+ * window, then prints throughput and the final state.
+ *
+ * Script lines:
+ *   type Integer|Character|String   type used by the following pushes
+ *   push VALUE                      VALUE is the rest of the line
+ *   pop | peek | clear
+ *   batch V1,V2,...                 all-or-nothing, like the batch dialog
+ *   random N                        push N random values
+ *   popn N                          pop up to N values at once
+ *   load FILE                       push every value in a UTF-8 file, all-or-nothing
+ * Blank lines and lines starting with # are skipped. A rejected operation is
+ * reported on stderr and the script continues.
+ */
+public class StackCli {
+    private static final int MAX_REPORTED_ERRORS = 10;
+    private static final int DEFAULT_TOP_COUNT = 10;
+
+    private final StackEngine engine;
+    private final Random random = new Random();
+    private String dataType = "Integer";
+    private long operations = 0;
+    private long rejected = 0;
+    // Text of the element the last pop or peek returned
+    private String value;
+
+    StackCli(StackEngine engine) {
+        this.engine = engine;
+    }
+
+    /** Applies every line of the script; returns false on an unknown command. */
+    boolean run(BufferedReader script) throws IOException {
+        String line;
+        long lineNumber = 0;
+        while ((line = script.readLine()) != null) {
+            lineNumber++;
+            try {
+                if (!apply(line)) {
+                    System.err.println("line " + lineNumber + ": unknown command \"" + getCommand(line) + "\"");
+                    return false;
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                if (++rejected <= MAX_REPORTED_ERRORS) {
+                    System.err.println("line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies one script line; blank and comment lines do nothing. Returns
+     * false on an unknown command and throws like the engine on a rejected one.
+     */
+    boolean apply(String line) {
+        if (line.isEmpty() || line.charAt(0) == '#') return true;
+        String command = getCommand(line);
+        String argument = command.length() < line.length() ? line.substring(command.length() + 1) : "";
+        value = null;
+        if (!execute(command, argument)) return false;
+        operations++;
+        executed(command, value);
+        return true;
+    }
+
+    private static String getCommand(String line) {
+        int space = line.indexOf(' ');
+        return space < 0 ? line : line.substring(0, space);
+    }
+
+    /**
+     * Called after each operation the engine accepted; command is the script
+     * keyword, and value the popped or peeked element's text, else null.
+     */
+    void executed(String command, String value) {
+    }
+
+    private boolean execute(String command, String argument) {
+        switch (command) {
+            case "type":
+                StackModel.forType(argument.trim());
+                dataType = argument.trim();
+                return true;
+            case "push":
+                engine.push(argument.trim(), dataType);
+                return true;
+            case "pop":
+                value = engine.pop();
+                return true;
+            case "peek":
+                value = engine.peek();
+                return true;
+            case "clear":
+                engine.clear();
+                return true;
+            case "batch":
+                engine.pushAll(StackEngine.parseBatch(argument, dataType));
+                return true;
+            case "random":
+                engine.pushAll(StackEngine.randomBatch(dataType, parseCount(argument), random));
+                return true;
+            case "popn":
+                engine.pop(parseCount(argument));
+                return true;
+            case "load":
+                try {
+                    engine.load(new File(argument.trim()), dataType);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Cannot read " + argument.trim() + ": " + e.getMessage());
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static int parseCount(String argument) {
+        try {
+            int count = Integer.parseInt(argument.trim());
+            if (count > 0) return count;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Expected a positive count: " + argument);
+    }
+
+    private void printSummary(long elapsedNanos, int topCount) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format(Locale.ROOT, "Operations: %,d (%,d rejected) in %.3f s, %,.0f ops/s",
+                operations, rejected, seconds, seconds > 0 ? (operations + rejected) / seconds : 0.0));
+
+        StackModel model = engine.getModel();
+        String type = engine.isDataTypeLocked() ? engine.getSelectedDataType() : "unlocked";
+        System.out.println(String.format(Locale.ROOT, "Stack: %,d elements (%s)", model.size(), type));
+        StringBuilder top = new StringBuilder("Top:");
+        int shown = Math.min(topCount, model.size());
+        for (int i = 0; i < shown; i++) {
+            top.append(i == 0 ? " " : ", ").append(model.toString(model.size() - 1 - i));
+        }
+        if (shown < model.size()) top.append(", ...");
+        System.out.println(top);
+        System.out.println(String.format(Locale.ROOT, "History: %,d entries", engine.getHistory().getSize()));
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java StackCli [--journal DIR] [--max-size N] [--history N] [--top N] [SCRIPT|-]");
+        System.err.println("Reads the script from stdin when SCRIPT is - or missing.");
+    }
+
+    public static void main(String[] args) throws IOException {
+        String scriptPath = "-";
+        File journalDir = null;
+        int maxSize = StackEngine.MAX_STACK_SIZE;
+        int historyCapacity = StackEngine.DEFAULT_HISTORY_CAPACITY;
+        int topCount = DEFAULT_TOP_COUNT;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--journal":
+                        journalDir = new File(args[++i]);
+                        break;
+                    case "--max-size":
+                        maxSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "--history":
+                        historyCapacity = Integer.parseInt(args[++i]);
+                        break;
+                    case "--top":
+                        topCount = Integer.parseInt(args[++i]);
+                        break;
+                    case "-h":
+                    case "--help":
+                        usage();
+                        return;
+                    default:
+                        scriptPath = args[i];
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            usage();
+            System.exit(2);
+        }
+
+        OperationJournal journal = journalDir == null ? null : OperationJournal.open(journalDir, historyCapacity);
+        StackCli cli = new StackCli(new StackEngine(new HistoryLog(historyCapacity), journal, maxSize));
+        InputStream in = scriptPath.equals("-") ? System.in : new FileInputStream(scriptPath);
+        boolean completed;
+        long start = System.nanoTime();
+        try (BufferedReader script = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            completed = cli.run(script);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (journal != null) journal.close();
+
+        if (cli.rejected > MAX_REPORTED_ERRORS) {
+            System.err.println("... and " + (cli.rejected - MAX_REPORTED_ERRORS) + " more rejected operations");
+        }
+        cli.printSummary(elapsed, topCount);
+        if (!completed) System.exit(1);
+    }
+}
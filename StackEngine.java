@@ -0,0 +1,368 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The stack's behavior without any UI: type locking, the size limit, input
+ * validation, history and journaling. The window and the command-line runner
+ * both go through this class. A refused operation changes nothing and throws
+ * IllegalArgumentException (bad input) or IllegalStateException (wrong state)
+ * with a message meant for the user.
+ *
+ * With a timeline enabled, every change is also recorded as a version that
+ * undo, redo and seek return to in O(1). The stack then shows that version
+ * read-only; the next operation adopts it as the live state and continues
+ * from there. Off-heap String stacks are not recorded, since every version
+ * would hold their strings on the heap again; undo is off until such a stack
+ * is emptied, which brings it back to the last version recorded.
+ */
+public class StackEngine {
+    public static final int MAX_STACK_SIZE = 1_000_000;
+    public static final int DEFAULT_HISTORY_CAPACITY = 1_000_000;
+
+    private final HistoryLog history;
+    private final OperationJournal journal;
+    private final int maxSize;
+
+    // Replaced with a model of the locked type on the first push
+    private StackModel stack = StackModel.forType("Integer");
+    private String selectedDataType = null;
+    private VersionTimeline timeline;
+    // True while stack is a timeline view rather than the live model. Checks
+    // run against the view before adoptVersion(), so a refused operation
+    // changes nothing; that holds because adopting makes the viewed version
+    // live with the same type and size, which restore() must keep true
+    private boolean viewingVersion = false;
+    // The live model while a version is viewed; it matches the last version
+    private StackModel liveModel;
+
+    public StackEngine(HistoryLog history, OperationJournal journal) {
+        this(history, journal, MAX_STACK_SIZE);
+    }
+
+    /** Creates an engine, adopting whatever state the journal (may be null) recovered. */
+    public StackEngine(HistoryLog history, OperationJournal journal, int maxSize) {
+        this.history = history;
+        this.journal = journal;
+        this.maxSize = maxSize;
+        if (journal != null) {
+            for (String entry : journal.getRecoveredHistory()) {
+                history.add(entry);
+            }
+            StackModel recovered = journal.getRecoveredModel();
+            if (recovered != null) {
+                stack = recovered;
+                selectedDataType = recovered.getDataType();
+            }
+        }
+    }
+
+    public StackModel getModel() {
+        return stack;
+    }
+
+    public HistoryLog getHistory() {
+        return history;
+    }
+
+    /** The type every element must have, or null while the stack is empty. */
+    public String getSelectedDataType() {
+        return selectedDataType;
+    }
+
+    public boolean isDataTypeLocked() {
+        return selectedDataType != null;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Starts recording versions, with the current state as the first one. */
+    public void enableTimeline(int maxVersions, long maxNodes) {
+        adoptVersion();
+        timeline = new VersionTimeline(maxVersions, maxNodes);
+        if (isOffHeap()) {
+            // Matches the stack again once it is emptied
+            timeline.recordClear();
+        } else {
+            timeline.recordAll(stack);
+        }
+    }
+
+    /** The recorded versions, or null if the timeline is off. */
+    public VersionTimeline getTimeline() {
+        return timeline;
+    }
+
+    /** True if versions can be shown: there is a timeline, and the stack isn't kept off-heap. */
+    public boolean canSeek() {
+        return timeline != null && !isOffHeap();
+    }
+
+    public boolean canUndo() {
+        return canSeek() && timeline.getCurrentVersion() > timeline.getFirstVersion();
+    }
+
+    public boolean canRedo() {
+        return canSeek() && timeline.getCurrentVersion() < timeline.getLastVersion();
+    }
+
+    public void undo() {
+        if (!canUndo()) {
+            throw new IllegalStateException("Nothing to undo");
+        }
+        seek(timeline.getCurrentVersion() - 1);
+    }
+
+    public void redo() {
+        if (!canRedo()) {
+            throw new IllegalStateException("Nothing to redo");
+        }
+        seek(timeline.getCurrentVersion() + 1);
+    }
+
+    /** Shows a recorded version; O(1), nothing is replayed or copied. */
+    public void seek(int version) {
+        if (!canSeek()) {
+            throw new IllegalStateException("Off-heap String stacks keep no earlier versions");
+        }
+        timeline.setCurrentVersion(version);
+        if (!viewingVersion) {
+            liveModel = stack;
+        }
+        // Coming back to the newest version needs no copy
+        viewingVersion = version != timeline.getLastVersion();
+        stack = viewingVersion ? timeline.view(version, liveModel) : liveModel;
+        // The type adoptVersion() will restore, so checks made on the view hold after it
+        selectedDataType = timeline.getDataType(version);
+    }
+
+    /** Makes the version being shown the live state; each operation does this first. */
+    public void adoptVersion() {
+        if (!viewingVersion) return;
+        viewingVersion = false;
+        int version = timeline.getCurrentVersion();
+        // The live model still holds the last version; only where the two differ is redone
+        stack = timeline.restore(liveModel, version);
+        liveModel = null;
+        history.add(HistoryLog.restored(version, stack.size()));
+        // The journal can't express going back, so it restarts from a snapshot of the version
+        if (journal != null) snapshotJournal();
+    }
+
+    /** Parses input as dataType and pushes it. Returns the pushed value. */
+    public Object push(String input, String dataType) {
+        if (input.isEmpty()) {
+            throw new IllegalArgumentException("Please enter a value");
+        }
+        if (stack.size() >= maxSize) {
+            throw new IllegalStateException("Stack overflow - maximum size reached (" + maxSize + ")");
+        }
+        Object value = StackModel.parseValue(input, dataType);
+        checkType(dataType);
+        // Checked against the version shown, which is exactly what gets adopted
+        adoptVersion();
+        lockType(dataType);
+
+        stack.push(value);
+        if (canSeek()) timeline.recordPush(stack);
+        if (journal != null) journal.logPush(stack);
+        history.add(HistoryLog.pushed(value.toString()));
+        maybeSnapshot();
+        return value;
+    }
+
+    /** Removes the top element and returns its text. */
+    public String pop() {
+        checkNotEmpty();
+        String value = stack.toString(stack.size() - 1);
+        adoptVersion();
+        stack.pop();
+        if (canSeek()) timeline.recordPop(1);
+        if (journal != null) journal.logPop();
+        history.add(HistoryLog.popped(value));
+        maybeSnapshot();
+        unlockIfEmpty();
+        return value;
+    }
+
+    /** Returns the text of the top element. */
+    public String peek() {
+        checkNotEmpty();
+        String value = stack.toString(stack.size() - 1);
+        // Peeking at an older version doesn't adopt it, so redo stays possible
+        if (journal != null && !viewingVersion) journal.logPeek();
+        history.add(HistoryLog.peeked(value));
+        maybeSnapshot();
+        return value;
+    }
+
+    public void clear() {
+        if (stack.isEmpty()) {
+            throw new IllegalStateException("Stack is already empty");
+        }
+        adoptVersion();
+        int size = stack.size();
+        stack.clear();
+        if (canSeek()) timeline.recordClear();
+        if (journal != null) journal.logClear();
+        // Logged like any other change, so undoing a clear keeps what came before it
+        history.add(HistoryLog.cleared(size));
+        maybeSnapshot();
+        unlockIfEmpty();
+    }
+
+    /** Pushes a validated batch with one model update and one history entry. */
+    public void pushAll(StackModel staged) {
+        String dataType = staged.getDataType();
+        checkType(dataType);
+        if (stack.size() + staged.size() > maxSize) {
+            throw new IllegalStateException("Stack overflow - maximum size reached (" + maxSize + ")");
+        }
+        // Checked against the version shown, which is exactly what gets adopted
+        adoptVersion();
+        lockType(dataType);
+
+        stack.pushAll(staged);
+        if (canSeek()) timeline.recordPushAll(staged);
+        if (journal != null) journal.logBatchPush(staged);
+        history.add(HistoryLog.batchPushed(staged.size()));
+        maybeSnapshot();
+    }
+
+    /** Pops up to count elements in one step and returns how many were removed. */
+    public int pop(int count) {
+        checkNotEmpty();
+        adoptVersion();
+        int popped = Math.min(count, stack.size());
+        stack.pop(popped);
+        if (canSeek()) timeline.recordPop(popped);
+        if (journal != null) journal.logPopMany(popped);
+        history.add(HistoryLog.batchPopped(popped));
+        maybeSnapshot();
+        unlockIfEmpty();
+        return popped;
+    }
+
+    // ---- Batches ----
+
+    /**
+     * Parses a comma or line separated list as dataType. Every value is checked
+     * first, so a bad list throws one exception describing the first few errors.
+     */
+    public static StackModel parseBatch(CharSequence text, String dataType) {
+        return checkedValues(new ValueParser(dataType).parse(text));
+    }
+
+    /**
+     * Parses a UTF-8 file of values like parseBatch, through a memory mapping.
+     * Touches no engine state, so it may run off the EDT; maxValues is usually
+     * getRemainingCapacity().
+     */
+    public static StackModel parseFile(File file, String dataType, int maxValues) throws IOException {
+        ValueParser parser = new ValueParser(dataType, maxValues).parse(file);
+        if (parser.isOverflow()) {
+            throw new IllegalStateException("Stack overflow - the file has more than the " + maxValues + " values that fit");
+        }
+        return checkedValues(parser);
+    }
+
+    private static StackModel checkedValues(ValueParser parser) {
+        if (parser.getTokenCount() == 0) {
+            throw new IllegalArgumentException("Please enter at least one value");
+        }
+        if (parser.getErrorCount() > 0) {
+            throw new IllegalArgumentException(parser.getErrorReport());
+        }
+        return parser.getValues();
+    }
+
+    /** Parses a file and pushes it as one batch, all or nothing. Returns the number of values pushed. */
+    public int load(File file, String dataType) throws IOException {
+        checkType(dataType);
+        StackModel staged = parseFile(file, dataType, getRemainingCapacity());
+        pushAll(staged);
+        return staged.size();
+    }
+
+    public int getRemainingCapacity() {
+        return Math.max(0, maxSize - stack.size());
+    }
+
+    /** A batch of count random values: 0-999, A-Z, or five lowercase letters. */
+    public static StackModel randomBatch(String dataType, int count, Random random) {
+        StackModel staged = StackModel.forType(dataType);
+        if (staged instanceof StackModel.IntStack) {
+            StackModel.IntStack ints = (StackModel.IntStack) staged;
+            for (int i = 0; i < count; i++) ints.push(random.nextInt(1000));
+        } else if (staged instanceof StackModel.CharStack) {
+            StackModel.CharStack chars = (StackModel.CharStack) staged;
+            for (int i = 0; i < count; i++) chars.push((char) ('A' + random.nextInt(26)));
+        } else {
+            StackModel.StringStack strings = (StackModel.StringStack) staged;
+            char[] word = new char[5];
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < word.length; j++) word[j] = (char) ('a' + random.nextInt(26));
+                strings.push(new String(word));
+            }
+        }
+        return staged;
+    }
+
+    // ---- Helpers ----
+
+    private void checkType(String dataType) {
+        if (selectedDataType != null && !dataType.equals(selectedDataType)) {
+            throw new IllegalStateException("Stack type locked to " + selectedDataType);
+        }
+    }
+
+    private void lockType(String dataType) {
+        checkType(dataType);
+        if (selectedDataType == null) {
+            selectedDataType = dataType;
+            stack = StackModel.forType(selectedDataType);
+            // Nothing is recorded until this stack is emptied, when it matches the current version again
+            if (timeline != null && isOffHeap()) timeline.dropRedo();
+        }
+    }
+
+    private boolean isOffHeap() {
+        return stack instanceof StackModel.SlabStringStack;
+    }
+
+    private void unlockIfEmpty() {
+        if (stack.isEmpty()) {
+            selectedDataType = null;
+            // Empty again, it matches the current version, so undo can come back
+            if (isOffHeap()) stack = StackModel.forType("Integer");
+        }
+    }
+
+    private void checkNotEmpty() {
+        if (stack.isEmpty()) {
+            throw new IllegalStateException("Stack is empty");
+        }
+    }
+
+    // Called after each journaled operation
+    private void maybeSnapshot() {
+        if (journal != null && !viewingVersion && journal.isSnapshotDue()) {
+            snapshotJournal();
+        }
+    }
+
+    // The journal writes out a state that must not change under it: the current
+    // timeline version costs nothing to capture; without a timeline the stack is copied
+    private void snapshotJournal() {
+        StackModel frozen;
+        if (canSeek()) {
+            frozen = timeline.view(timeline.getCurrentVersion());
+        } else {
+            frozen = StackModel.forType(stack.getDataType());
+            frozen.pushAll(stack);
+        }
+        journal.snapshot(frozen, history.freeze());
+    }
+}
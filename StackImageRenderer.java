@@ -0,0 +1,141 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws every row of a stack into one image, scaled, through the same
+ * StackPanel painting as the window. The image is split into horizontal
+ * bands; on a pool each band is painted by a worker with its own offscreen
+ * panel, so sprites and text buffers are never shared.
+ *
+ * Bands are painted in place, clipped to their rows of the shared image,
+ * rather than into tiles copied in afterwards: moving a tile's origin changes
+ * floating-point rounding in scaled drawing. Antialiased edges that cross a
+ * band's top are still stepped from the clip, which can move their coverage
+ * by one level, so the single-threaded render() paints the same bands in
+ * order; the two are pixel-identical for any number of threads.
+ *
+ * Models are only read, so one may be shared by every band; a
+ * VersionTimeline view works too.
+ */
+public class StackImageRenderer {
+    // Device rows per band; small enough that the pool stays busy until the end
+    private static final int BAND_HEIGHT = 256;
+
+    private final int width;
+    private final double scale;
+    private final boolean darkMode;
+    private final ThreadLocal<StackPanel> panels;
+
+    /** Renders a panel width pixels wide, scaled by scale. */
+    public StackImageRenderer(int width, double scale, boolean darkMode) {
+        if (width < 1 || !(scale > 0)) throw new IllegalArgumentException("Bad size: " + width + " x " + scale);
+        this.width = width;
+        this.scale = scale;
+        this.darkMode = darkMode;
+        this.panels = ThreadLocal.withInitial(this::createPanel);
+    }
+
+    /** The largest scale, up to 1, at which a stack of size rows fits in maxPixels pixels. */
+    public static double fitScale(int width, int size, long maxPixels) {
+        double pixels = (double) width * getPanelHeight(size);
+        return Math.min(1.0, Math.sqrt(maxPixels / pixels));
+    }
+
+    private static int getPanelHeight(int size) {
+        return (size + 2) * StackVisualizer.ELEMENT_HEIGHT + 40;
+    }
+
+    public Dimension getImageSize(StackModel stack) {
+        long height = (long) Math.ceil(getPanelHeight(stack.size()) * scale);
+        int imageWidth = (int) Math.ceil(width * scale);
+        if (height * imageWidth > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Image of " + imageWidth + " x " + height + " is too large; use a smaller scale");
+        }
+        return new Dimension(imageWidth, (int) height);
+    }
+
+    /** Paints the whole stack on the calling thread. */
+    public BufferedImage render(StackModel stack) {
+        Dimension size = getImageSize(stack);
+        BufferedImage image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        for (int top = 0; top < size.height; top += BAND_HEIGHT) {
+            paintBand(stack, image, top);
+        }
+        return image;
+    }
+
+    /** Paints the whole stack in bands on pool; the image is the same as render(stack). */
+    public BufferedImage render(StackModel stack, ForkJoinPool pool) {
+        Dimension size = getImageSize(stack);
+        BufferedImage image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        // Sets up the image's surface once, before the workers share it
+        image.createGraphics().dispose();
+        List<RecursiveAction> bands = new ArrayList<>();
+        for (int y = 0; y < size.height; y += BAND_HEIGHT) {
+            int top = y;
+            bands.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    paintBand(stack, image, top);
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(bands);
+            }
+        });
+        return image;
+    }
+
+    // Paints image rows [top, top + BAND_HEIGHT) with this thread's panel
+    private void paintBand(StackModel stack, BufferedImage image, int top) {
+        Graphics2D g = image.createGraphics();
+        g.clipRect(0, top, image.getWidth(), Math.min(BAND_HEIGHT, image.getHeight() - top));
+        g.scale(scale, scale);
+        panel(stack).paint(g);
+        g.dispose();
+    }
+
+    private StackPanel panel(StackModel stack) {
+        StackPanel panel = panels.get();
+        if (panel.getModel() != stack) {
+            panel.setModel(stack);
+        }
+        panel.setSize(width, getPanelHeight(stack.size()));
+        return panel;
+    }
+
+    private StackPanel createPanel() {
+        // Nothing is animated; the clock is never ticked
+        StackPanel panel = new OffscreenPanel(AnimationClock.manual(16));
+        panel.setBackground(darkMode ? StackVisualizer.DARK_BG : StackVisualizer.LIGHT_BG);
+        panel.setDarkMode(darkMode);
+        return panel;
+    }
+
+    /** A StackPanel that is never on screen, so repaint and layout requests are dropped. */
+    static final class OffscreenPanel extends StackPanel {
+        OffscreenPanel(AnimationClock clock) {
+            super(StackModel.forType("Integer"), clock, new RepaintCoalescer() {
+                @Override
+                public void add(JComponent component, Rectangle region) {
+                }
+            });
+        }
+
+        @Override
+        public void repaint(long time, int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void revalidate() {
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+/**
+ * The whole stack in a narrow strip beside the StackPanel, bottom to top, one
+ * pixel row per run of elements colored by their mean value. The part in the
+ * viewport is outlined; clicking or dragging scrolls the panel there. Each
+ * pixel row reads a few summary buckets, so painting costs the same at any
+ * depth.
+ */
+public class StackMinimap extends JComponent {
+    static final int WIDTH = 60;
+    private static final int MARGIN = 10;
+
+    private final StackPanel panel;
+    private final StackSummary.Range range = new StackSummary.Range();
+    private final StackSummary.Range total = new StackSummary.Range();
+
+    public StackMinimap(StackPanel panel, JViewport viewport) {
+        this.panel = panel;
+        setOpaque(true);
+        setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        setToolTipText("Click or drag to scroll the stack");
+        viewport.addChangeListener(e -> repaint());
+        panel.addPropertyChangeListener("zoom", e -> repaint());
+        MouseAdapter scroller = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                scrollTo(e.getY());
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                scrollTo(e.getY());
+            }
+        };
+        addMouseListener(scroller);
+        addMouseMotionListener(scroller);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(WIDTH, 0);
+    }
+
+    private int getMapHeight() {
+        return Math.max(1, getHeight() - 2 * MARGIN);
+    }
+
+    // Element count at the bottom edge of pixel row y, counted from the bottom of the map
+    private long getRowsBelow(int y, int size) {
+        return (long) y * size / getMapHeight();
+    }
+
+    private void scrollTo(int y) {
+        int size = panel.getModel().size();
+        if (size == 0) return;
+        int row = (int) getRowsBelow(getHeight() - MARGIN - y, size);
+        panel.scrollToRow(Math.max(0, Math.min(size - 1, row)));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        StackSummary summary = panel.getSummary();
+        int size = summary.size();
+        if (size == 0) return;
+        summary.getTotal(total);
+
+        int mapHeight = getMapHeight();
+        int bottom = getHeight() - MARGIN;
+        int x = MARGIN;
+        int width = getWidth() - 2 * MARGIN;
+        Rectangle clip = g.getClipBounds();
+        int fromY = clip == null ? 0 : Math.max(0, bottom - clip.y - clip.height);
+        int toY = clip == null ? mapHeight : Math.min(mapHeight, bottom - clip.y + 1);
+        // Stacks lower than the map get taller rows
+        for (int y = fromY; y < toY; y++) {
+            int from = (int) getRowsBelow(y, size);
+            int to = (int) Math.max(from + 1, getRowsBelow(y + 1, size));
+            if (from >= size) break;
+            summary.getRange(from, Math.min(size, to), range);
+            g.setColor(StackPanel.getHeatColor(range.getMean(), total.getMin(), total.getMax()));
+            g.fillRect(x, bottom - y - 1, width, 1);
+        }
+
+        // Outline what the panel shows
+        Rectangle visible = panel.getVisibleRect();
+        double top = Math.min(size, panel.getRowAt(visible.y));
+        double low = Math.max(0, panel.getRowAt(visible.y + visible.height));
+        if (top > low) {
+            int outlineTop = bottom - (int) Math.ceil(top * mapHeight / size);
+            int outlineBottom = bottom - (int) Math.floor(low * mapHeight / size);
+            g.setColor(panel.isDarkMode() ? Color.WHITE : Color.BLACK);
+            g.drawRect(x - 3, outlineTop - 2, width + 5, Math.max(3, outlineBottom - outlineTop + 3));
+        }
+    }
+}
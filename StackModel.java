@@ -0,0 +1,886 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Backing storage for the visualized stack. One subclass per data type so that
+ * Integer and Character stacks keep their values in primitive arrays; pushing,
+ * popping and peeking never box, and the renderer reads element text straight
+ * into a reusable char buffer.
+ */
+public abstract class StackModel {
+    private static final int INITIAL_CAPACITY = 16;
+    public static final int MAX_STRING_LENGTH = 20;
+    // Set to keep String stacks in off-heap slabs; meant for stacks of millions of strings
+    static final boolean OFF_HEAP_STRINGS = Boolean.getBoolean("stackvisualizer.offHeapStrings");
+
+    // Sizes below this many distinct low marks are forgotten; see getLowestSizeSince
+    private static final int MAX_LOW_MARKS = 64;
+
+    protected int size;
+    // Bumped by every operation that shrinks the stack
+    private long shrinkStamp = 0;
+    // After shrink lowStamps[i], the stack never went below lowSizes[i]; both ascend
+    private long[] lowStamps = new long[4];
+    private int[] lowSizes = new int[4];
+    private int lowCount = 0;
+    // Marks up to this stamp were dropped; asking about them gets 0
+    private long lowFloor = 0;
+
+    public static StackModel forType(String dataType) {
+        switch (dataType) {
+            case "Integer":
+                return new IntStack();
+            case "Character":
+                return new CharStack();
+            case "String":
+                return OFF_HEAP_STRINGS ? new SlabStringStack() : new ArrayStringStack();
+            default:
+                throw new IllegalArgumentException("Unknown data type: " + dataType);
+        }
+    }
+
+    /**
+     * Parses input with the rules of the push field. Throws
+     * IllegalArgumentException with a message meant for the user.
+     */
+    public static Object parseValue(String input, String dataType) {
+        switch (dataType) {
+            case "Integer":
+                try {
+                    return Integer.parseInt(input);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid integer format");
+                }
+            case "Character":
+                if (input.length() != 1) {
+                    throw new IllegalArgumentException("Please enter exactly one character");
+                }
+                return input.charAt(0);
+            case "String":
+                if (input.length() > MAX_STRING_LENGTH) {
+                    throw new IllegalArgumentException("String too long (max " + MAX_STRING_LENGTH + " chars)");
+                }
+                return input;
+            default:
+                throw new IllegalArgumentException("Unknown data type: " + dataType);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Counts the operations that shrank the stack; pass it to getLowestSizeSince later. */
+    public long getShrinkStamp() {
+        return shrinkStamp;
+    }
+
+    /**
+     * The lowest size the stack had since getShrinkStamp() returned stamp,
+     * so observers that catch up lazily know which elements they saw may have
+     * been popped, even if pushes brought the size back. Never too high; in
+     * rare cases lower than the truth, which only costs a larger rebuild.
+     */
+    public int getLowestSizeSince(long stamp) {
+        if (stamp < lowFloor) return 0;
+        // The first mark after stamp holds the lowest size, as later marks are higher
+        int lo = 0;
+        int hi = lowCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lowStamps[mid] <= stamp) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo < lowCount ? lowSizes[lo] : size;
+    }
+
+    /** Records that the stack just shrank to size; every pop, pop(count) and clear calls it. */
+    protected final void shrunk() {
+        shrinkStamp++;
+        while (lowCount > 0 && lowSizes[lowCount - 1] >= size) lowCount--;
+        if (lowCount == MAX_LOW_MARKS) {
+            lowFloor = lowStamps[0];
+            System.arraycopy(lowStamps, 1, lowStamps, 0, --lowCount);
+            System.arraycopy(lowSizes, 1, lowSizes, 0, lowCount);
+        } else if (lowCount == lowStamps.length) {
+            lowStamps = Arrays.copyOf(lowStamps, lowCount * 2);
+            lowSizes = Arrays.copyOf(lowSizes, lowCount * 2);
+        }
+        lowStamps[lowCount] = shrinkStamp;
+        lowSizes[lowCount] = size;
+        lowCount++;
+    }
+
+    public abstract String getDataType();
+
+    /** Pushes a value as returned by parseInput, unboxing it for primitive stacks. */
+    public abstract void push(Object value);
+
+    /** Removes the top element. */
+    public abstract void pop();
+
+    /** Removes the top count elements in one step. */
+    public void pop(int count) {
+        if (count < 0 || count > size) {
+            throw new IllegalArgumentException("Cannot pop " + count + " of " + size + " elements");
+        }
+        size -= count;
+        shrunk();
+    }
+
+    /** Appends every element of a model of the same type in one copy. */
+    public abstract void pushAll(StackModel other);
+
+    /** Boxed view of an element; meant for per-operation use, not per-frame. */
+    public abstract Object get(int index);
+
+    /** True if the element at index equals value, without boxing the element. */
+    public abstract boolean valueEquals(int index, Object value);
+
+    /**
+     * Copies the display text of an element into dst and returns its length.
+     * Text longer than dst is truncated.
+     */
+    public abstract int getChars(int index, char[] dst);
+
+    /**
+     * The number zoomed-out views summarize for an element: the value of an
+     * Integer, the code of a Character or the length of a String.
+     */
+    public int getMetric(int index) {
+        Object value = get(index);
+        if (value instanceof Integer) return (Integer) value;
+        if (value instanceof Character) return (Character) value;
+        return ((String) value).length();
+    }
+
+    /** True if the elements at two indexes are equal. */
+    public boolean sameValue(int index, int other) {
+        return get(index).equals(get(other));
+    }
+
+    /** Same as get(index).hashCode(), without boxing where the subclass can avoid it. */
+    public int valueHash(int index) {
+        return get(index).hashCode();
+    }
+
+    public String toString(int index) {
+        return String.valueOf(get(index));
+    }
+
+    public void clear() {
+        size = 0;
+        shrunk();
+    }
+
+    protected void checkSameType(StackModel other) {
+        if (!other.getDataType().equals(getDataType())) {
+            throw new IllegalArgumentException("Cannot push " + other.getDataType() + " values onto a " + getDataType() + " stack");
+        }
+    }
+
+    protected void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    protected static int newCapacity(int oldCapacity) {
+        if (oldCapacity == 0) return INITIAL_CAPACITY;
+        int grown = oldCapacity + (oldCapacity >> 1);
+        return grown < 0 ? Integer.MAX_VALUE - 8 : grown;
+    }
+
+    static int intChars(int value, char[] dst) {
+        if (value == Integer.MIN_VALUE) {
+            String min = "-2147483648";
+            int len = Math.min(min.length(), dst.length);
+            min.getChars(0, len, dst, 0);
+            return len;
+        }
+        int len = 0;
+        if (value < 0) {
+            dst[len++] = '-';
+            value = -value;
+        }
+        int start = len;
+        do {
+            dst[len++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            char tmp = dst[i];
+            dst[i] = dst[j];
+            dst[j] = tmp;
+        }
+        return len;
+    }
+
+    public static class IntStack extends StackModel {
+        private int[] values = new int[0];
+        private IntAggregates aggregates;
+
+        @Override
+        public String getDataType() {
+            return "Integer";
+        }
+
+        public void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, newCapacity(values.length));
+            }
+            values[size++] = value;
+            if (aggregates != null) aggregates.pushed(value);
+        }
+
+        @Override
+        public void push(Object value) {
+            push(((Integer) value).intValue());
+        }
+
+        @Override
+        public void pushAll(StackModel other) {
+            checkSameType(other);
+            IntStack source = (IntStack) other;
+            int newSize = size + source.size;
+            if (newSize > values.length) {
+                values = Arrays.copyOf(values, Math.max(newSize, newCapacity(values.length)));
+            }
+            System.arraycopy(source.values, 0, values, size, source.size);
+            if (aggregates != null) {
+                for (int i = size; i < newSize; i++) aggregates.pushed(values[i]);
+            }
+            size = newSize;
+        }
+
+        public int popInt() {
+            if (size == 0) throw new IllegalStateException("Stack is empty");
+            int value = values[--size];
+            shrunk();
+            if (aggregates != null) aggregates.popped(value);
+            return value;
+        }
+
+        @Override
+        public void pop() {
+            popInt();
+        }
+
+        @Override
+        public void pop(int count) {
+            super.pop(count);
+            if (aggregates != null) {
+                for (int i = size + count - 1; i >= size; i--) aggregates.popped(values[i]);
+            }
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            if (aggregates != null) aggregates.clear();
+        }
+
+        /**
+         * Min, max, sum and mode of the contents. They are built on the first
+         * call, in O(n), and from then on kept up to date by every operation.
+         */
+        public IntAggregates getAggregates() {
+            if (aggregates == null) {
+                aggregates = new IntAggregates();
+                for (int i = 0; i < size; i++) aggregates.pushed(values[i]);
+            }
+            return aggregates;
+        }
+
+        public int peekInt() {
+            if (size == 0) throw new IllegalStateException("Stack is empty");
+            return values[size - 1];
+        }
+
+        public int getInt(int index) {
+            checkIndex(index);
+            return values[index];
+        }
+
+        @Override
+        public Object get(int index) {
+            return getInt(index);
+        }
+
+        @Override
+        public boolean valueEquals(int index, Object value) {
+            return value instanceof Integer && getInt(index) == (Integer) value;
+        }
+
+        @Override
+        public int getChars(int index, char[] dst) {
+            return intChars(getInt(index), dst);
+        }
+
+        @Override
+        public int getMetric(int index) {
+            return getInt(index);
+        }
+
+        @Override
+        public int valueHash(int index) {
+            return getInt(index);
+        }
+
+        @Override
+        public boolean sameValue(int index, int other) {
+            return getInt(index) == getInt(other);
+        }
+    }
+
+    public static class CharStack extends StackModel {
+        private char[] values = new char[0];
+
+        @Override
+        public String getDataType() {
+            return "Character";
+        }
+
+        public void push(char value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, newCapacity(values.length));
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        public void push(Object value) {
+            push(((Character) value).charValue());
+        }
+
+        @Override
+        public void pushAll(StackModel other) {
+            checkSameType(other);
+            CharStack source = (CharStack) other;
+            int newSize = size + source.size;
+            if (newSize > values.length) {
+                values = Arrays.copyOf(values, Math.max(newSize, newCapacity(values.length)));
+            }
+            System.arraycopy(source.values, 0, values, size, source.size);
+            size = newSize;
+        }
+
+        public char popChar() {
+            if (size == 0) throw new IllegalStateException("Stack is empty");
+            char value = values[--size];
+            shrunk();
+            return value;
+        }
+
+        @Override
+        public void pop() {
+            popChar();
+        }
+
+        public char peekChar() {
+            if (size == 0) throw new IllegalStateException("Stack is empty");
+            return values[size - 1];
+        }
+
+        public char getChar(int index) {
+            checkIndex(index);
+            return values[index];
+        }
+
+        @Override
+        public Object get(int index) {
+            return getChar(index);
+        }
+
+        @Override
+        public boolean valueEquals(int index, Object value) {
+            return value instanceof Character && getChar(index) == (Character) value;
+        }
+
+        @Override
+        public int getChars(int index, char[] dst) {
+            dst[0] = getChar(index);
+            return 1;
+        }
+
+        @Override
+        public int getMetric(int index) {
+            return getChar(index);
+        }
+
+        @Override
+        public int valueHash(int index) {
+            return getChar(index);
+        }
+
+        @Override
+        public boolean sameValue(int index, int other) {
+            return getChar(index) == getChar(other);
+        }
+    }
+
+    /** A String stack; forType picks the on-heap or the off-heap kind. */
+    public abstract static class StringStack extends StackModel {
+        @Override
+        public String getDataType() {
+            return "String";
+        }
+
+        public abstract void push(String value);
+
+        @Override
+        public void push(Object value) {
+            push((String) value);
+        }
+
+        // Element by element, for a source of the other kind
+        @Override
+        public void pushAll(StackModel other) {
+            checkSameType(other);
+            StringStack source = (StringStack) other;
+            int count = source.size;
+            for (int i = 0; i < count; i++) {
+                push(source.getString(i));
+            }
+        }
+
+        public abstract String popString();
+
+        public String peekString() {
+            if (size == 0) throw new IllegalStateException("Stack is empty");
+            return getString(size - 1);
+        }
+
+        public abstract String getString(int index);
+
+        @Override
+        public Object get(int index) {
+            return getString(index);
+        }
+
+        @Override
+        public String toString(int index) {
+            return getString(index);
+        }
+
+        @Override
+        public int valueHash(int index) {
+            return getString(index).hashCode();
+        }
+    }
+
+    public static class ArrayStringStack extends StringStack {
+        private String[] values = new String[0];
+
+        @Override
+        public void push(String value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, newCapacity(values.length));
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        public void pushAll(StackModel other) {
+            if (!(other instanceof ArrayStringStack)) {
+                super.pushAll(other);
+                return;
+            }
+            ArrayStringStack source = (ArrayStringStack) other;
+            int newSize = size + source.size;
+            if (newSize > values.length) {
+                values = Arrays.copyOf(values, Math.max(newSize, newCapacity(values.length)));
+            }
+            System.arraycopy(source.values, 0, values, size, source.size);
+            size = newSize;
+        }
+
+        @Override
+        public String popString() {
+            if (size == 0) throw new IllegalStateException("Stack is empty");
+            String value = values[--size];
+            values[size] = null;
+            shrunk();
+            return value;
+        }
+
+        @Override
+        public void pop() {
+            popString();
+        }
+
+        @Override
+        public String peekString() {
+            if (size == 0) throw new IllegalStateException("Stack is empty");
+            return values[size - 1];
+        }
+
+        @Override
+        public String getString(int index) {
+            checkIndex(index);
+            return values[index];
+        }
+
+        @Override
+        public boolean valueEquals(int index, Object value) {
+            return getString(index).equals(value);
+        }
+
+        @Override
+        public int getChars(int index, char[] dst) {
+            String value = getString(index);
+            int len = Math.min(value.length(), dst.length);
+            value.getChars(0, len, dst, 0);
+            return len;
+        }
+
+        @Override
+        public int getMetric(int index) {
+            return getString(index).length();
+        }
+
+        @Override
+        public void pop(int count) {
+            int oldSize = size;
+            super.pop(count);
+            Arrays.fill(values, size, oldSize, null);
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(values, 0, size, null);
+            super.clear();
+        }
+    }
+
+    /**
+     * String stack whose text lives off the Java heap. Elements are packed as
+     * UTF-8 into direct ByteBuffer slabs and the heap only holds one int offset
+     * per element, so tens of millions of strings cost a few bytes each and
+     * give the collector nothing to scan. Popping moves the write position
+     * back, so space at the top of the slab is reused by the next push.
+     */
+    public static class SlabStringStack extends StringStack {
+        static final int SLAB_SIZE = 1 << 20;
+
+        private ByteBuffer[] slabs = new ByteBuffer[0];
+        // Index of the first element in each slab, and the bytes used by each filled slab
+        private int[] slabStarts = new int[0];
+        private int[] slabEnds = new int[0];
+        private int slabCount = 0;
+        private int fill = 0;
+        // Start of each element in its slab; it ends where the next one starts
+        private int[] offsets = new int[0];
+        private final View view = new View();
+
+        @Override
+        public void push(String value) {
+            int length = utf8Length(value);
+            if (slabCount == 0 || fill + length > SLAB_SIZE) {
+                startSlab();
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, newCapacity(offsets.length));
+            }
+            offsets[size++] = fill;
+            fill = encode(value, slabs[slabCount - 1], fill);
+        }
+
+        @Override
+        public void pushAll(StackModel other) {
+            if (!(other instanceof SlabStringStack)) {
+                super.pushAll(other);
+                return;
+            }
+            SlabStringStack source = (SlabStringStack) other;
+            int count = source.size;
+            if (size + count > offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(size + count, newCapacity(offsets.length)));
+            }
+            // Copies the longest run of elements of one source slab that fits in the room left
+            int i = 0;
+            while (i < count) {
+                int slab = source.slabOf(i);
+                int lastInSlab = (slab + 1 < source.slabCount ? source.slabStarts[slab + 1] : count) - 1;
+                int from = source.offsets[i];
+                int room = slabCount == 0 ? 0 : SLAB_SIZE - fill;
+                int low = i - 1;
+                int high = lastInSlab;
+                while (low < high) {
+                    int mid = (low + high + 1) >>> 1;
+                    if (source.end(slab, mid) - from <= room) {
+                        low = mid;
+                    } else {
+                        high = mid - 1;
+                    }
+                }
+                if (low < i) {
+                    startSlab();
+                    continue;
+                }
+                int to = source.end(slab, low);
+                ByteBuffer src = source.slabs[slab].duplicate();
+                src.limit(to);
+                src.position(from);
+                ByteBuffer dst = slabs[slabCount - 1].duplicate();
+                dst.position(fill);
+                dst.put(src);
+                for (int k = i; k <= low; k++) {
+                    offsets[size++] = fill + source.offsets[k] - from;
+                }
+                fill += to - from;
+                i = low + 1;
+            }
+        }
+
+        @Override
+        public String popString() {
+            String value = peekString();
+            pop();
+            return value;
+        }
+
+        @Override
+        public void pop() {
+            if (size == 0) throw new IllegalStateException("Stack is empty");
+            pop(1);
+        }
+
+        @Override
+        public void pop(int count) {
+            super.pop(count);
+            // Below, the first popped element is where the slab's fill goes back to
+            if (count == 0) return;
+            if (size == 0) {
+                slabCount = 0;
+                fill = 0;
+            } else {
+                int slab = slabOf(size - 1);
+                // The first popped element either follows the new top in its slab or starts the next one
+                fill = slab + 1 < slabCount && slabStarts[slab + 1] == size ? slabEnds[slab] : offsets[size];
+                slabCount = slab + 1;
+            }
+            releaseSpareSlabs();
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            slabCount = 0;
+            fill = 0;
+            releaseSpareSlabs();
+        }
+
+        @Override
+        public String getString(int index) {
+            checkIndex(index);
+            int slab = slabOf(index);
+            int from = offsets[index];
+            int to = end(slab, index);
+            char[] chars = new char[to - from];
+            return new String(chars, 0, decode(slabs[slab], from, to, chars));
+        }
+
+        /**
+         * The element at index as a CharSequence, without allocating. The view
+         * is shared: it changes on the next call.
+         */
+        public CharSequence getView(int index) {
+            checkIndex(index);
+            int slab = slabOf(index);
+            int from = offsets[index];
+            int to = end(slab, index);
+            if (to - from > view.chars.length) {
+                view.chars = new char[to - from];
+            }
+            view.length = decode(slabs[slab], from, to, view.chars);
+            return view;
+        }
+
+        @Override
+        public boolean valueEquals(int index, Object value) {
+            return value instanceof String && ((String) value).contentEquals(getView(index));
+        }
+
+        @Override
+        public int getChars(int index, char[] dst) {
+            checkIndex(index);
+            int slab = slabOf(index);
+            return decode(slabs[slab], offsets[index], end(slab, index), dst);
+        }
+
+        // The UTF-16 length, counted from the bytes without decoding them
+        @Override
+        public int getMetric(int index) {
+            checkIndex(index);
+            int slab = slabOf(index);
+            ByteBuffer bytes = slabs[slab];
+            int length = 0;
+            for (int i = offsets[index], end = end(slab, index); i < end; i++) {
+                int b = bytes.get(i) & 0xFF;
+                if ((b & 0xC0) != 0x80) length += b >= 0xF0 ? 2 : 1;
+            }
+            return length;
+        }
+
+        /** Direct memory held by the slabs, including the spare one. */
+        public long getOffHeapBytes() {
+            long bytes = 0;
+            for (ByteBuffer slab : slabs) {
+                if (slab != null) bytes += slab.capacity();
+            }
+            return bytes;
+        }
+
+        private void startSlab() {
+            if (slabCount > 0) {
+                slabEnds[slabCount - 1] = fill;
+            }
+            if (slabCount == slabs.length) {
+                int capacity = Math.max(4, slabCount * 2);
+                slabs = Arrays.copyOf(slabs, capacity);
+                slabStarts = Arrays.copyOf(slabStarts, capacity);
+                slabEnds = Arrays.copyOf(slabEnds, capacity);
+            }
+            if (slabs[slabCount] == null) {
+                slabs[slabCount] = ByteBuffer.allocateDirect(SLAB_SIZE);
+            }
+            slabStarts[slabCount] = size;
+            slabCount++;
+            fill = 0;
+        }
+
+        // One empty slab is kept so pushing and popping across a slab boundary doesn't reallocate
+        private void releaseSpareSlabs() {
+            for (int i = slabCount + 1; i < slabs.length; i++) {
+                slabs[i] = null;
+            }
+        }
+
+        private int slabOf(int index) {
+            int low = 0;
+            int high = slabCount - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (slabStarts[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private int end(int slab, int index) {
+            if (slab + 1 == slabCount) {
+                return index + 1 < size ? offsets[index + 1] : fill;
+            }
+            return index + 1 < slabStarts[slab + 1] ? offsets[index + 1] : slabEnds[slab];
+        }
+
+        // Unpaired surrogates are written as '?', like String.getBytes
+        private static int utf8Length(String value) {
+            int length = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    length++;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        private static int encode(String value, ByteBuffer slab, int position) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    slab.put(position++, (byte) c);
+                } else if (c < 0x800) {
+                    slab.put(position++, (byte) (0xC0 | c >> 6));
+                    slab.put(position++, (byte) (0x80 | c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    slab.put(position++, (byte) (0xF0 | codePoint >> 18));
+                    slab.put(position++, (byte) (0x80 | codePoint >> 12 & 0x3F));
+                    slab.put(position++, (byte) (0x80 | codePoint >> 6 & 0x3F));
+                    slab.put(position++, (byte) (0x80 | codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    slab.put(position++, (byte) '?');
+                } else {
+                    slab.put(position++, (byte) (0xE0 | c >> 12));
+                    slab.put(position++, (byte) (0x80 | c >> 6 & 0x3F));
+                    slab.put(position++, (byte) (0x80 | c & 0x3F));
+                }
+            }
+            return position;
+        }
+
+        // Decodes [from, to) into dst, truncating to its length; returns the number of chars
+        private static int decode(ByteBuffer slab, int from, int to, char[] dst) {
+            int count = 0;
+            int i = from;
+            while (i < to && count < dst.length) {
+                int b = slab.get(i) & 0xFF;
+                if (b < 0x80) {
+                    dst[count++] = (char) b;
+                    i++;
+                } else if (b < 0xE0) {
+                    dst[count++] = (char) ((b & 0x1F) << 6 | slab.get(i + 1) & 0x3F);
+                    i += 2;
+                } else if (b < 0xF0) {
+                    dst[count++] = (char) ((b & 0x0F) << 12 | (slab.get(i + 1) & 0x3F) << 6 | slab.get(i + 2) & 0x3F);
+                    i += 3;
+                } else {
+                    int codePoint = (b & 0x07) << 18 | (slab.get(i + 1) & 0x3F) << 12
+                            | (slab.get(i + 2) & 0x3F) << 6 | slab.get(i + 3) & 0x3F;
+                    dst[count++] = Character.highSurrogate(codePoint);
+                    if (count < dst.length) dst[count++] = Character.lowSurrogate(codePoint);
+                    i += 4;
+                }
+            }
+            return count;
+        }
+
+        /** Reusable read-only view of one element. */
+        private static final class View implements CharSequence {
+            char[] chars = new char[MAX_STRING_LENGTH * 2];
+            int length;
+
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public char charAt(int index) {
+                if (index < 0 || index >= length) throw new IndexOutOfBoundsException("Index: " + index);
+                return chars[index];
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return toString().substring(start, end);
+            }
+
+            @Override
+            public String toString() {
+                return new String(chars, 0, length);
+            }
+        }
+    }
+}
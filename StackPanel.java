@@ -0,0 +1,748 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws a StackModel bottom-up, painting only the rows inside the clip. Cell
+ * fades, the push arrow and the peek highlight are animations on a shared
+ * AnimationClock and are keyed by stack index, so concurrent operations never
+ * overwrite each other's state.
+ *
+ * Rows can be zoomed out vertically. Small rows are drawn as plain cells;
+ * once a row is only a few pixels high, runs of rows are drawn as bands from
+ * a StackSummary, colored by their mean value with a bar showing their
+ * range, so a frame reads about the same number of bands at any depth.
+ */
+public class StackPanel extends JPanel implements SpriteCache.CellPainter {
+    private static final int ELEMENT_HEIGHT = StackVisualizer.ELEMENT_HEIGHT;
+    private static final int ELEMENT_WIDTH = StackVisualizer.ELEMENT_WIDTH;
+    private static final int ROUNDNESS = StackVisualizer.ROUNDNESS;
+    private static final int ARROW_SIZE = StackVisualizer.ARROW_SIZE;
+    private static final int SPRITE_PADDING = 2;
+    private static final int MAX_SPRITES = 256;
+    private static final int MAX_RESERVED_ROWS = 16;
+    private static final int STATS_WIDTH = 520;
+    private static final int STATS_LINE_HEIGHT = 18;
+    // Borders, shadows and the base's stroke reach a few pixels past a row's bounds,
+    // so rows this close to the clip are painted too and any clip matches a full paint
+    private static final int CULL_MARGIN = 8;
+    private static final double MIN_ZOOM = 1e-6;
+    // Rows lower than this are drawn as bands of aggregated rows
+    private static final int MIN_CELL_HEIGHT = 6;
+    // Bands cover enough rows to be at least this high
+    private static final int MIN_BAND_HEIGHT = 4;
+    // Bands at least this high also show their value range
+    private static final int MIN_RANGE_BAND_HEIGHT = 6;
+    // Zoomed-out rows are raised by up to this much so the base doesn't cover row 0
+    private static final int BASE_CLEARANCE = 10;
+    // Cells show their text while it is at least this large
+    private static final float MIN_FONT_SIZE = 8.0f;
+    private static final Color[] HEAT_COLORS = new Color[64];
+
+    static {
+        // Blue for the lowest values through to red for the highest
+        for (int i = 0; i < HEAT_COLORS.length; i++) {
+            float hue = 0.66f * (1.0f - i / (float) (HEAT_COLORS.length - 1));
+            HEAT_COLORS[i] = Color.getHSBColor(hue, 0.7f, 0.9f);
+        }
+    }
+
+    private final Font elementFont = new Font("Segoe UI", Font.BOLD, 22);
+    private final BasicStroke baseStroke = new BasicStroke(3);
+    private final BasicStroke borderStroke = new BasicStroke(2.0f);
+    private final BasicStroke compactBorderStroke = new BasicStroke(1.0f);
+    private final Color shadowColor = new Color(0, 0, 0, 50);
+    private final Color lightRangeColor = new Color(0, 0, 0, 120);
+    private final Color darkRangeColor = new Color(255, 255, 255, 150);
+    private final Color statsBackground = new Color(0, 0, 0, 170);
+    private final Font statsFont = new Font(Font.MONOSPACED, Font.BOLD, 13);
+    private final char[] textBuffer = new char[32];
+    private final SpriteCache sprites;
+    private final AnimationClock clock;
+    private final RepaintCoalescer repaints;
+    private final List<CellFade> cellFades = new ArrayList<>();
+    private Indicator pushArrow, peekHighlight;
+
+    private StackModel stack;
+    private boolean darkMode = false;
+    private int layoutRows = 0;
+    private double zoom = 1.0;
+    private SpriteCache compactSprites;
+    private final StackSummary summary = new StackSummary();
+    private final ValueIndex valueIndex = new ValueIndex();
+    private final StackSummary.Range bucket = new StackSummary.Range();
+    private final StackSummary.Range total = new StackSummary.Range();
+    // Value range the bands were last colored for; a new minimum or maximum recolors them all
+    private int heatMin, heatMax;
+    private boolean debugRepaint = Boolean.getBoolean("stackvisualizer.debugRepaint");
+    private List<ContentionWorkload.Stats> workloadStats;
+    private Rectangle statsBounds;
+    private final PerformanceOverlay performance = new PerformanceOverlay();
+    private boolean performanceVisible = false;
+    private Rectangle performanceBounds;
+    // The overlay boxes stay in the corners of the viewport, so scrolling moves them
+    private final javax.swing.event.ChangeListener viewportListener = e -> repaintOverlays();
+    private Runnable firstPaintAction;
+
+    public StackPanel(StackModel stack, AnimationClock clock, RepaintCoalescer repaints) {
+        this(stack, clock, repaints, null);
+    }
+
+    /**
+     * Creates a panel drawing full-size cells from sprites, which may be
+     * another panel's getSpriteCache(); null gives the panel its own.
+     */
+    public StackPanel(StackModel stack, AnimationClock clock, RepaintCoalescer repaints, SpriteCache sprites) {
+        this.stack = stack;
+        this.clock = clock;
+        this.repaints = repaints;
+        this.sprites = sprites != null ? sprites : new SpriteCache(MAX_SPRITES,
+                ELEMENT_WIDTH + 5 + 2 * SPRITE_PADDING, ELEMENT_HEIGHT + 2 * SPRITE_PADDING, SPRITE_PADDING, this);
+        setOpaque(true);
+        setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+    }
+
+    /** Runs action on the EDT once the panel has been painted for the first time. */
+    public void runAfterFirstPaint(Runnable action) {
+        firstPaintAction = action;
+    }
+
+    public StackModel getModel() {
+        return stack;
+    }
+
+    /** The full-size cell sprites; cells look the same in every panel, so other panels may share them. */
+    public SpriteCache getSpriteCache() {
+        return sprites;
+    }
+
+    public void setModel(StackModel stack) {
+        this.stack = stack;
+        stackResized();
+        repaint();
+    }
+
+    public boolean isDarkMode() {
+        return darkMode;
+    }
+
+    public void setDarkMode(boolean darkMode) {
+        this.darkMode = darkMode;
+        sprites.invalidate();
+        if (compactSprites != null) compactSprites.invalidate();
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        int height = Math.max(600, (int) Math.ceil(layoutRows * getRowHeight()) + 2 * ELEMENT_HEIGHT + 40);
+        return new Dimension(getWidth(), height);
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Scales row heights by zoom, at most 1, keeping the row in the middle of
+     * the viewport where it is. Fires a "zoom" property change.
+     */
+    public void setZoom(double zoom) {
+        zoom = Math.max(MIN_ZOOM, Math.min(1.0, zoom));
+        double oldZoom = this.zoom;
+        if (zoom == oldZoom) return;
+        JViewport viewport = getParent() instanceof JViewport ? (JViewport) getParent() : null;
+        Rectangle view = viewport == null ? null : viewport.getViewRect();
+        double anchorRow = view == null ? 0 : getRowAt(view.y + view.height / 2);
+        this.zoom = zoom;
+        if (compactSprites != null) {
+            compactSprites.invalidate();
+            compactSprites = null;
+        }
+        if (viewport == null) {
+            revalidate();
+        } else {
+            invalidate();
+            viewport.validate();
+            int y = getEdgeY(anchorRow) - view.height / 2;
+            int maxY = Math.max(0, getHeight() - viewport.getExtentSize().height);
+            viewport.setViewPosition(new Point(view.x, Math.max(0, Math.min(maxY, y))));
+        }
+        repaint();
+        firePropertyChange("zoom", oldZoom, zoom);
+    }
+
+    /** Scrolls so the row at index is in the middle of the viewport. */
+    public void scrollToRow(int index) {
+        Rectangle visible = getVisibleRect();
+        visible.y = getEdgeY(index + 0.5) - visible.height / 2;
+        scrollRectToVisible(visible);
+    }
+
+    /** The stack index, with a fraction, of the row at y; below 0 under the stack. */
+    public double getRowAt(int y) {
+        return (getStackBottom() - y) / getRowHeight();
+    }
+
+    /** The summary of the shown model, brought up to date. */
+    public StackSummary getSummary() {
+        summary.sync(stack);
+        return summary;
+    }
+
+    /** The positions of every value in the shown model, brought up to date. */
+    public ValueIndex getValueIndex() {
+        valueIndex.sync(stack);
+        return valueIndex;
+    }
+
+    private double getRowHeight() {
+        return ELEMENT_HEIGHT * zoom;
+    }
+
+    private int getBaseY() {
+        return getHeight() - ELEMENT_HEIGHT - 20;
+    }
+
+    private double getStackBottom() {
+        return getBaseY() + ELEMENT_HEIGHT - (1.0 - zoom) * BASE_CLEARANCE;
+    }
+
+    // The y of the boundary with rows rows below it
+    private int getEdgeY(double rows) {
+        return (int) Math.round(getStackBottom() - rows * getRowHeight());
+    }
+
+    private int getRowY(int index) {
+        return getEdgeY(index + 1);
+    }
+
+    // Height of a row's cell without the gap above it; never less than 2 pixels
+    private int getCellHeight() {
+        return Math.max(2, (int) Math.round(getRowHeight() * (ELEMENT_HEIGHT - 5) / ELEMENT_HEIGHT));
+    }
+
+    public Rectangle getRowBounds(int index) {
+        return new Rectangle(0, getRowY(index), getWidth(), Math.max(1, getEdgeY(index) - getRowY(index)));
+    }
+
+    // Lowest stack index whose row reaches above clipBottom
+    private int getFirstVisibleRow(int clipBottom) {
+        return Math.max(0, (int) Math.floor(getRowAt(clipBottom)));
+    }
+
+    // Highest stack index whose row reaches below clipTop
+    private int getLastVisibleRow(int clipTop) {
+        return (int) Math.min(stack.size() - 1L, (long) Math.floor(getRowAt(clipTop + 1)));
+    }
+
+    private boolean isBanded() {
+        return getRowHeight() < MIN_CELL_HEIGHT;
+    }
+
+    // Smallest summary level whose buckets are at least MIN_BAND_HEIGHT high
+    private int getBandLevel() {
+        int level = 0;
+        while (level < summary.getLevels() && StackSummary.getBucketSize(level) * getRowHeight() < MIN_BAND_HEIGHT) {
+            level++;
+        }
+        return level;
+    }
+
+    /** The color for value on a scale from min to max. */
+    static Color getHeatColor(double value, int min, int max) {
+        double position = max == min ? 0.5 : (value - min) / ((double) max - min);
+        int step = (int) Math.round(position * (HEAT_COLORS.length - 1));
+        return HEAT_COLORS[Math.max(0, Math.min(HEAT_COLORS.length - 1, step))];
+    }
+
+    int getCellX() {
+        return (getWidth() - ELEMENT_WIDTH) / 2;
+    }
+
+    /**
+     * Marks one cell, including its shadow and border, for repainting. Row 0's
+     * region overlaps the stack base, which paintComponent redraws whenever
+     * the clip reaches it.
+     */
+    public void repaintRow(int index) {
+        if (zoom == 1.0) {
+            repaints.add(this, new Rectangle(getCellX() - SPRITE_PADDING, getRowY(index) - SPRITE_PADDING,
+                    ELEMENT_WIDTH + 5 + 2 * SPRITE_PADDING, ELEMENT_HEIGHT + 2 * SPRITE_PADDING));
+            return;
+        }
+        int from = index;
+        int to = index + 1;
+        if (isBanded()) {
+            // The row's whole band changes color, or every band does if the value range changed
+            StackSummary summary = getSummary();
+            summary.getTotal(total);
+            if (total.getMin() != heatMin || total.getMax() != heatMax) {
+                repaint();
+                return;
+            }
+            int shift = StackSummary.FANOUT_BITS * getBandLevel();
+            from = index >> shift << shift;
+            to = from + (1 << shift);
+        }
+        int top = getEdgeY(to);
+        repaints.add(this, new Rectangle(getCellX() - SPRITE_PADDING, top - SPRITE_PADDING,
+                ELEMENT_WIDTH + 2 * SPRITE_PADDING, Math.max(getEdgeY(from) - top, getCellHeight()) + 2 * SPRITE_PADDING));
+    }
+
+    /** Marks the push-arrow strip to the left of a cell for repainting. */
+    public void repaintArrow(int index) {
+        int arrowX = getCellX() - ARROW_SIZE - 20;
+        int arrowY = getArrowY(index);
+        repaints.add(this, new Rectangle(arrowX - 3, arrowY - 10, ARROW_SIZE + 6, 20));
+    }
+
+    public boolean isDebugRepaint() {
+        return debugRepaint;
+    }
+
+    public void setDebugRepaint(boolean debugRepaint) {
+        this.debugRepaint = debugRepaint;
+        repaint();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (getParent() instanceof JViewport) {
+            ((JViewport) getParent()).addChangeListener(viewportListener);
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        if (getParent() instanceof JViewport) {
+            ((JViewport) getParent()).removeChangeListener(viewportListener);
+        }
+        super.removeNotify();
+    }
+
+    public List<ContentionWorkload.Stats> getWorkloadStats() {
+        return workloadStats;
+    }
+
+    /** Shows one line of contention statistics per backend; null hides the box. */
+    public void setWorkloadStats(List<ContentionWorkload.Stats> stats) {
+        workloadStats = stats;
+        repaintOverlays();
+    }
+
+    public boolean isPerformanceOverlayVisible() {
+        return performanceVisible;
+    }
+
+    /** Shows frame times, animation rate and event queue latency in the top-left corner. */
+    public void setPerformanceOverlayVisible(boolean visible) {
+        performanceVisible = visible;
+        if (visible) {
+            performance.start(this::repaintOverlays);
+        } else {
+            performance.stop();
+        }
+        repaintOverlays();
+    }
+
+    // Repaints each box where it is now and where it was last painted
+    private void repaintOverlays() {
+        if (statsBounds != null) {
+            repaints.add(this, statsBounds);
+        }
+        statsBounds = workloadStats == null ? null : getStatsBounds();
+        if (statsBounds != null) {
+            repaints.add(this, statsBounds);
+        }
+        if (performanceBounds != null) {
+            repaints.add(this, performanceBounds);
+        }
+        performanceBounds = performanceVisible ? getPerformanceBounds() : null;
+        if (performanceBounds != null) {
+            repaints.add(this, performanceBounds);
+        }
+    }
+
+    private Rectangle getPerformanceBounds() {
+        Rectangle visible = getVisibleRect();
+        return new Rectangle(visible.x + 10, visible.y + 10, PerformanceOverlay.WIDTH, PerformanceOverlay.HEIGHT);
+    }
+
+    private Rectangle getStatsBounds() {
+        Rectangle visible = getVisibleRect();
+        int height = (workloadStats.size() + 1) * STATS_LINE_HEIGHT + 10;
+        return new Rectangle(visible.x + visible.width - STATS_WIDTH - 10, visible.y + 10, STATS_WIDTH, height);
+    }
+
+    /** Fades in the freshly pushed cell at index, cutting short the fade-out of a value popped from there. */
+    public void animatePush(int index, long durationMillis) {
+        for (CellFade fade : cellFades) {
+            if (fade.index == index && !fade.push) fade.cancel();
+        }
+        clock.start(new CellFade(index, true, null, durationMillis));
+    }
+
+    /** Fades out a popped cell; text is captured because the model no longer holds it. */
+    public void animatePop(int index, String text, long durationMillis) {
+        for (CellFade fade : cellFades) {
+            if (fade.index == index && fade.push) fade.cancel();
+        }
+        clock.start(new CellFade(index, false, text, durationMillis));
+    }
+
+    public void showPushArrow(int index, long durationMillis) {
+        if (pushArrow != null) pushArrow.cancel();
+        pushArrow = new Indicator(index, true, durationMillis);
+        clock.start(pushArrow);
+    }
+
+    public void showPeekHighlight(int index, long durationMillis) {
+        if (peekHighlight != null) peekHighlight.cancel();
+        peekHighlight = new Indicator(index, false, durationMillis);
+        clock.start(peekHighlight);
+    }
+
+    /** Stops every animation on this panel, e.g. when the stack is cleared. */
+    public void cancelAnimations() {
+        for (CellFade fade : cellFades) {
+            fade.cancel();
+        }
+        cellFades.clear();
+        if (pushArrow != null) pushArrow.cancel();
+        if (peekHighlight != null) peekHighlight.cancel();
+        pushArrow = null;
+        peekHighlight = null;
+        repaint();
+    }
+
+    private CellFade findPushFade(int index) {
+        for (int i = 0; i < cellFades.size(); i++) {
+            CellFade fade = cellFades.get(i);
+            if (fade.push && fade.index == index && !fade.isCancelled()) return fade;
+        }
+        return null;
+    }
+
+    @Override
+    public void paintCell(Graphics2D g2, int x, int y, char[] text, int length, boolean darkMode, int state) {
+        // Shadow
+        g2.setColor(shadowColor);
+        g2.fillRoundRect(x + 5, y + 5, ELEMENT_WIDTH, ELEMENT_HEIGHT - 5, ROUNDNESS, ROUNDNESS);
+
+        // Background
+        g2.setColor(state == SpriteCache.STATE_ACCENT ? StackVisualizer.ACCENT_COLOR
+                : (darkMode ? StackVisualizer.DARK_ELEMENT : StackVisualizer.LIGHT_ELEMENT));
+        g2.fillRoundRect(x, y, ELEMENT_WIDTH, ELEMENT_HEIGHT - 5, ROUNDNESS, ROUNDNESS);
+
+        // Border
+        g2.setColor(darkMode ? Color.DARK_GRAY : Color.GRAY);
+        g2.setStroke(borderStroke);
+        g2.drawRoundRect(x, y, ELEMENT_WIDTH, ELEMENT_HEIGHT - 5, ROUNDNESS, ROUNDNESS);
+
+        // Text
+        g2.setColor(darkMode ? Color.WHITE : Color.BLACK);
+        g2.setFont(elementFont);
+        FontMetrics fm = g2.getFontMetrics();
+        int textX = x + (ELEMENT_WIDTH - fm.charsWidth(text, 0, length)) / 2;
+        int textY = y + (ELEMENT_HEIGHT - 5 + fm.getAscent()) / 2;
+        g2.drawChars(text, 0, length, textX, textY);
+    }
+
+    // Plain cells for rows lower than the full-size sprites, painted into sprites of their own
+    private void paintCompactCell(Graphics2D g2, int x, int y, char[] text, int length, boolean darkMode, int state) {
+        int height = getCellHeight();
+        int roundness = Math.min(ROUNDNESS, height);
+        g2.setColor(state == SpriteCache.STATE_ACCENT ? StackVisualizer.ACCENT_COLOR
+                : (darkMode ? StackVisualizer.DARK_ELEMENT : StackVisualizer.LIGHT_ELEMENT));
+        g2.fillRoundRect(x, y, ELEMENT_WIDTH, height, roundness, roundness);
+        g2.setColor(darkMode ? Color.DARK_GRAY : Color.GRAY);
+        g2.setStroke(compactBorderStroke);
+        g2.drawRoundRect(x, y, ELEMENT_WIDTH, height, roundness, roundness);
+
+        Font font = elementFont.deriveFont(elementFont.getSize2D() * (float) zoom);
+        if (font.getSize2D() >= MIN_FONT_SIZE) {
+            g2.setColor(darkMode ? Color.WHITE : Color.BLACK);
+            g2.setFont(font);
+            FontMetrics fm = g2.getFontMetrics();
+            g2.drawChars(text, 0, length, x + (ELEMENT_WIDTH - fm.charsWidth(text, 0, length)) / 2,
+                    y + (height + fm.getAscent() - fm.getDescent()) / 2);
+        }
+    }
+
+    // Sprites for the current zoom; the compact ones are made again when it changes
+    private SpriteCache getSprites() {
+        if (zoom == 1.0) return sprites;
+        if (compactSprites == null) {
+            compactSprites = new SpriteCache(MAX_SPRITES, ELEMENT_WIDTH + 1 + 2 * SPRITE_PADDING,
+                    getCellHeight() + 1 + 2 * SPRITE_PADDING, SPRITE_PADDING, this::paintCompactCell);
+        }
+        return compactSprites;
+    }
+
+    // Rows first..last as bands of summary buckets: mean as the color, a bar from minimum to maximum
+    private void drawBands(Graphics2D g2, int x, int first, int last) {
+        StackSummary summary = getSummary();
+        summary.getTotal(total);
+        heatMin = total.getMin();
+        heatMax = total.getMax();
+        int level = getBandLevel();
+        int shift = StackSummary.FANOUT_BITS * level;
+        double span = Math.max(1.0, (double) heatMax - heatMin);
+        for (int b = first >> shift; b <= last >> shift; b++) {
+            summary.getBucket(level, b, bucket);
+            int from = b << shift;
+            int top = getEdgeY(from + bucket.getCount());
+            int height = Math.max(1, getEdgeY(from) - top - 1);
+            g2.setColor(getHeatColor(bucket.getMean(), heatMin, heatMax));
+            g2.fillRect(x, top, ELEMENT_WIDTH, height);
+            if (height >= MIN_RANGE_BAND_HEIGHT) {
+                int minX = x + (int) ((bucket.getMin() - (double) heatMin) / span * (ELEMENT_WIDTH - 2));
+                int maxX = x + (int) ((bucket.getMax() - (double) heatMin) / span * (ELEMENT_WIDTH - 2));
+                g2.setColor(darkMode ? darkRangeColor : lightRangeColor);
+                g2.fillRect(minX, top + height / 2 - 1, maxX - minX + 2, 2);
+            }
+        }
+    }
+
+    private int getArrowY(int index) {
+        return getRowY(index) + (zoom == 1.0 ? ELEMENT_HEIGHT / 2 : getCellHeight() / 2);
+    }
+
+    private void drawCell(Graphics2D g2, int x, int y, char[] text, int length, int state, float alpha) {
+        Image sprite = getSprites().getSprite(text, length, darkMode, state, getGraphicsConfiguration());
+        if (alpha < 1.0f) {
+            Composite composite = g2.getComposite();
+            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, Math.max(0.0f, alpha)));
+            g2.drawImage(sprite, x - SPRITE_PADDING, y - SPRITE_PADDING, null);
+            g2.setComposite(composite);
+        } else {
+            g2.drawImage(sprite, x - SPRITE_PADDING, y - SPRITE_PADDING, null);
+        }
+    }
+
+    /**
+     * Re-lays out the panel after the stack size changed. Deep stacks reserve a
+     * few spare rows so most pushes and pops don't change the panel height (a
+     * resize repaints the whole viewport). Rows are anchored to the bottom, so
+     * the viewport is shifted by the height delta to keep the rows on screen
+     * from jumping.
+     */
+    public void stackResized() {
+        summary.stackChanged(stack);
+        valueIndex.stackChanged(stack);
+        int size = stack.size();
+        int spare = Math.min(size / 16, MAX_RESERVED_ROWS);
+        if (size <= layoutRows && layoutRows <= size + 2 * spare) {
+            return;
+        }
+        layoutRows = size + spare;
+        if (!(getParent() instanceof JViewport)) {
+            revalidate();
+            return;
+        }
+        JViewport viewport = (JViewport) getParent();
+        int oldHeight = getHeight();
+        Point position = viewport.getViewPosition();
+        invalidate();
+        viewport.validate();
+        int delta = getHeight() - oldHeight;
+        if (delta != 0) {
+            int maxY = Math.max(0, getHeight() - viewport.getExtentSize().height);
+            position.y = Math.max(0, Math.min(maxY, position.y + delta));
+            viewport.setViewPosition(position);
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        long paintStart = performanceVisible ? System.nanoTime() : 0;
+        super.paintComponent(g);
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+
+        int x = getCellX();
+        int baseY = getBaseY();
+
+        // Draw stack base
+        if (baseY + ELEMENT_HEIGHT + 5 + CULL_MARGIN >= clip.y) {
+            g2.setColor(darkMode ? StackVisualizer.DARK_ACCENT : StackVisualizer.ACCENT_COLOR);
+            g2.fillRoundRect(x - 30, baseY + ELEMENT_HEIGHT - 15,
+                    ELEMENT_WIDTH + 60, 20, 15, 15);
+            g2.setColor(darkMode ? Color.DARK_GRAY : Color.LIGHT_GRAY);
+            g2.setStroke(baseStroke);
+            g2.drawRoundRect(x - 30, baseY + ELEMENT_HEIGHT - 15,
+                    ELEMENT_WIDTH + 60, 20, 15, 15);
+        }
+
+        // Draw only the stack elements intersecting the clip
+        int first = getFirstVisibleRow(clip.y + clip.height + CULL_MARGIN);
+        int last = getLastVisibleRow(clip.y - CULL_MARGIN);
+        boolean checkFades = !cellFades.isEmpty();
+        boolean banded = isBanded();
+
+        if (banded) {
+            if (first <= last) drawBands(g2, x, first, last);
+        } else {
+            for (int i = first; i <= last; i++) {
+                int length = stack.getChars(i, textBuffer);
+                CellFade fade = checkFades ? findPushFade(i) : null;
+                if (fade != null) {
+                    drawCell(g2, x, getRowY(i), textBuffer, length, SpriteCache.STATE_ACCENT, fade.alpha);
+                } else {
+                    drawCell(g2, x, getRowY(i), textBuffer, length, SpriteCache.STATE_NORMAL, 1.0f);
+                }
+            }
+        }
+
+        // Draw popped elements fading out above the new top; bands have no room for them
+        for (int i = 0; i < cellFades.size() && !banded; i++) {
+            CellFade fade = cellFades.get(i);
+            if (!fade.push && !fade.isCancelled()) {
+                drawCell(g2, x, getRowY(fade.index), fade.text, fade.text.length, SpriteCache.STATE_ACCENT, fade.alpha);
+            }
+        }
+
+        // Draw peek highlight
+        if (peekHighlight != null) {
+            int height = getCellHeight();
+            int roundness = Math.min(ROUNDNESS, height);
+            g2.setColor(StackVisualizer.HIGHLIGHT_COLOR);
+            g2.fillRoundRect(x, getRowY(peekHighlight.index), ELEMENT_WIDTH, height, roundness, roundness);
+        }
+
+        // Draw push arrow indicator (on left side)
+        if (pushArrow != null) {
+            int arrowX = x - ARROW_SIZE - 20;
+            int arrowY = getArrowY(pushArrow.index);
+
+            g2.setColor(darkMode ? StackVisualizer.DARK_ACCENT : StackVisualizer.ACCENT_COLOR);
+            g2.setStroke(baseStroke);
+
+            // Arrow line
+            g2.drawLine(arrowX, arrowY, arrowX + ARROW_SIZE, arrowY);
+
+            // Arrow head
+            Polygon arrowHead = new Polygon();
+            arrowHead.addPoint(arrowX + ARROW_SIZE, arrowY);
+            arrowHead.addPoint(arrowX + ARROW_SIZE - 10, arrowY - 7);
+            arrowHead.addPoint(arrowX + ARROW_SIZE - 10, arrowY + 7);
+            g2.fill(arrowHead);
+        }
+
+        if (performanceVisible) {
+            Rectangle bounds = getPerformanceBounds();
+            // Refreshing the overlay alone is not a frame worth recording
+            if (!bounds.contains(clip)) {
+                performance.recordFrame(System.nanoTime() - paintStart, Math.max(0, last - first + 1));
+            }
+            if (bounds.intersects(clip)) {
+                performance.paint(g2, bounds, clock);
+            }
+        }
+
+        if (workloadStats != null) {
+            Rectangle bounds = getStatsBounds();
+            if (bounds.intersects(clip)) {
+                drawStats(g2, bounds);
+            }
+        }
+
+        // Outline the repainted region so damage can be checked by eye
+        if (debugRepaint) {
+            g2.setColor(Color.RED);
+            g2.setStroke(new BasicStroke(1));
+            g2.drawRect(clip.x, clip.y, clip.width - 1, clip.height - 1);
+        }
+
+        if (firstPaintAction != null) {
+            // Posted so the rest of the first frame reaches the screen before it runs
+            EventQueue.invokeLater(firstPaintAction);
+            firstPaintAction = null;
+        }
+    }
+
+    private void drawStats(Graphics2D g2, Rectangle bounds) {
+        g2.setColor(statsBackground);
+        g2.fillRoundRect(bounds.x, bounds.y, bounds.width, bounds.height, ROUNDNESS, ROUNDNESS);
+        g2.setFont(statsFont);
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        int ascent = g2.getFontMetrics().getAscent();
+        int textX = bounds.x + 10;
+        int textY = bounds.y + 5 + ascent;
+        g2.setColor(Color.WHITE);
+        g2.drawString("Concurrent backends", textX, textY);
+        for (ContentionWorkload.Stats stats : workloadStats) {
+            textY += STATS_LINE_HEIGHT;
+            g2.setColor(stats.running ? StackVisualizer.DARK_ACCENT : Color.LIGHT_GRAY);
+            g2.drawString(stats.toString(), textX, textY);
+        }
+    }
+
+    /** Push fade-in or pop fade-out of the cell at one stack index. */
+    private final class CellFade extends AnimationClock.Animation {
+        final int index;
+        final boolean push;
+        final char[] text;
+        float alpha;
+
+        CellFade(int index, boolean push, String text, long durationMillis) {
+            super(durationMillis);
+            this.index = index;
+            this.push = push;
+            this.text = text == null ? null : text.toCharArray();
+            cellFades.add(this);
+        }
+
+        @Override
+        protected void update(float progress) {
+            alpha = push ? (float) Math.sin(progress * Math.PI / 2) : 1.0f - progress;
+            repaintRow(index);
+        }
+
+        @Override
+        protected void finished() {
+            cellFades.remove(this);
+            repaintRow(index);
+        }
+    }
+
+    /** Push arrow or peek highlight shown next to a cell for a fixed time. */
+    private final class Indicator extends AnimationClock.Animation {
+        final int index;
+        final boolean arrow;
+
+        Indicator(int index, boolean arrow, long durationMillis) {
+            super(durationMillis);
+            this.index = index;
+            this.arrow = arrow;
+        }
+
+        @Override
+        protected void update(float progress) {
+            if (progress == 0.0f) repaintIndicator();
+        }
+
+        @Override
+        protected void finished() {
+            if (arrow && pushArrow == this) pushArrow = null;
+            if (!arrow && peekHighlight == this) peekHighlight = null;
+            repaintIndicator();
+        }
+
+        private void repaintIndicator() {
+            if (arrow) {
+                repaintArrow(index);
+            } else {
+                repaintRow(index);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import java.util.Arrays;
+
+/**
+ * Multi-resolution summary of a stack for zoomed-out drawing. Level l splits
+ * the stack into buckets of 4^l elements from the bottom, each holding the
+ * minimum, maximum and sum of its elements' metrics (see
+ * StackModel.getMetric); level 0 is the elements themselves. A bucket is
+ * built from the four below it, so a push or pop only touches the last
+ * bucket of each level, and a zoomed-out frame reads a fixed number of
+ * buckets whatever the depth.
+ *
+ * The summary follows one model at a time and catches up lazily in sync():
+ * buckets holding elements the model went below since the last call
+ * (StackModel.getLowestSizeSince) are rebuilt, so a pop followed by a push
+ * at the same size is caught, and new pushes are added. Switching to another
+ * version of the same timeline (undo, redo, seek) keeps the buckets below the
+ * depth where the two versions part (VersionTimeline.getSharedSize).
+ */
+public class StackSummary {
+    static final int FANOUT_BITS = 2;
+
+    /** Min, max, sum and count of a range of elements. */
+    public static final class Range {
+        int min;
+        int max;
+        long sum;
+        int count;
+
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+
+    private StackModel model;
+    private int size = 0;
+    // The model's shrink stamp as of the last catch-up
+    private long stamp;
+    // Index l - 1 holds level l
+    private int[][] mins = new int[0][];
+    private int[][] maxs = new int[0][];
+    private long[][] sums = new long[0][];
+
+    /** Elements covered by one bucket of level. */
+    public static int getBucketSize(int level) {
+        return 1 << (FANOUT_BITS * level);
+    }
+
+    /** Top level, whose single bucket covers the whole stack. */
+    public int getLevels() {
+        return mins.length;
+    }
+
+    /** Drops buckets that no longer match model: the popped ones, or those past what another model shares. */
+    public void stackChanged(StackModel model) {
+        int valid = this.model == null ? 0 : Math.min(size, this.model.getLowestSizeSince(stamp));
+        if (model != this.model && valid > 0) {
+            valid = Math.min(valid, VersionTimeline.getSharedSize(this.model, model));
+        }
+        this.model = model;
+        stamp = model.getShrinkStamp();
+        if (valid < size) {
+            size = valid;
+            rebuild(size);
+        }
+    }
+
+    /** Brings the summary up to date with model; costs only the elements pushed since the last call. */
+    public void sync(StackModel model) {
+        stackChanged(model);
+        if (model.size() > size) {
+            int from = size;
+            size = model.size();
+            rebuild(from);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Recomputes every bucket holding an element at or after from, bottom level first
+    private void rebuild(int from) {
+        int levels = 0;
+        while (levels < 15 && getBucketSize(levels) < size) levels++;
+        if (levels != mins.length) {
+            mins = Arrays.copyOf(mins, levels);
+            maxs = Arrays.copyOf(maxs, levels);
+            sums = Arrays.copyOf(sums, levels);
+        }
+        if (size == 0) return;
+        for (int level = 1; level <= levels; level++) {
+            int shift = FANOUT_BITS * level;
+            int first = from >> shift;
+            int last = (size - 1) >> shift;
+            ensureCapacity(level, last + 1);
+            int[] min = mins[level - 1];
+            int[] max = maxs[level - 1];
+            long[] sum = sums[level - 1];
+            for (int bucket = first; bucket <= last; bucket++) {
+                int lo = Integer.MAX_VALUE;
+                int hi = Integer.MIN_VALUE;
+                long total = 0;
+                if (level == 1) {
+                    int end = Math.min(size, (bucket + 1) << FANOUT_BITS);
+                    for (int i = bucket << FANOUT_BITS; i < end; i++) {
+                        int metric = model.getMetric(i);
+                        lo = Math.min(lo, metric);
+                        hi = Math.max(hi, metric);
+                        total += metric;
+                    }
+                } else {
+                    int[] childMin = mins[level - 2];
+                    int[] childMax = maxs[level - 2];
+                    long[] childSum = sums[level - 2];
+                    int end = Math.min(((size - 1) >> (shift - FANOUT_BITS)) + 1, (bucket + 1) << FANOUT_BITS);
+                    for (int child = bucket << FANOUT_BITS; child < end; child++) {
+                        lo = Math.min(lo, childMin[child]);
+                        hi = Math.max(hi, childMax[child]);
+                        total += childSum[child];
+                    }
+                }
+                min[bucket] = lo;
+                max[bucket] = hi;
+                sum[bucket] = total;
+            }
+        }
+    }
+
+    private void ensureCapacity(int level, int buckets) {
+        int[] min = mins[level - 1];
+        if (min != null && min.length >= buckets) return;
+        int capacity = Math.max(buckets, min == null ? 16 : min.length + (min.length >> 1));
+        mins[level - 1] = min == null ? new int[capacity] : Arrays.copyOf(min, capacity);
+        maxs[level - 1] = min == null ? new int[capacity] : Arrays.copyOf(maxs[level - 1], capacity);
+        sums[level - 1] = min == null ? new long[capacity] : Arrays.copyOf(sums[level - 1], capacity);
+    }
+
+    /** Fills out with bucket of level; level 0 is the element at index bucket. */
+    public void getBucket(int level, int bucket, Range out) {
+        if (level == 0) {
+            int metric = model.getMetric(bucket);
+            out.min = metric;
+            out.max = metric;
+            out.sum = metric;
+            out.count = 1;
+            return;
+        }
+        int start = bucket << (FANOUT_BITS * level);
+        out.min = mins[level - 1][bucket];
+        out.max = maxs[level - 1][bucket];
+        out.sum = sums[level - 1][bucket];
+        out.count = Math.min(size - start, getBucketSize(level));
+    }
+
+    /**
+     * Fills out with the elements [from, to), rounded out to whole buckets of
+     * the largest level that fits the range, so at most a handful are read.
+     */
+    public void getRange(int from, int to, Range out) {
+        int level = 0;
+        while (level < getLevels() && getBucketSize(level + 1) <= to - from) level++;
+        Range bucket = new Range();
+        out.min = Integer.MAX_VALUE;
+        out.max = Integer.MIN_VALUE;
+        out.sum = 0;
+        out.count = 0;
+        int shift = FANOUT_BITS * level;
+        for (int i = from >> shift; i <= (to - 1) >> shift; i++) {
+            getBucket(level, i, bucket);
+            out.min = Math.min(out.min, bucket.min);
+            out.max = Math.max(out.max, bucket.max);
+            out.sum += bucket.sum;
+            out.count += bucket.count;
+        }
+    }
+
+    /** The whole stack; empty ranges have count 0. */
+    public void getTotal(Range out) {
+        if (size == 0) {
+            out.min = 0;
+            out.max = 0;
+            out.sum = 0;
+            out.count = 0;
+        } else {
+            getBucket(getLevels(), 0, out);
+        }
+    }
+}
@@ -2,56 +2,94 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.event.ChangeEvent;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class StackVisualizer extends JFrame {
-    private ArrayList<Object> stack = new ArrayList<>();
+    // The active stack of the workspace; the controls act on it
+    private StackEngine engine;
     private StackPanel stackPanel;
-    private JTextField inputField;
+    private StackMinimap minimap;
+    private HistoryLog history;
+    private StackWorkspace workspace;
+    private JTextField inputField, searchField;
     private JComboBox<String> dataTypeCombo;
-    private JButton pushButton, popButton, peekButton, clearButton, toggleThemeButton;
-    private JSlider speedSlider;
-    private JLabel operationLabel, titleLabel;
-    private JTextArea historyArea;
-    private Timer animationTimer, peekHighlightTimer;
-    private Queue<String> historyQueue = new LinkedList<>();
-
-    private Object elementToAnimate = null;
-    private boolean isPushAnimation = false;
-    private float animationAlpha = 1.0f;
-    private int animationStep = 0;
-    private int animationY = 0;
-    private boolean showPushArrow = false;
-    private boolean showPeekHighlight = false;
-    private int highlightY = 0;
-    private int pushArrowY = 0;
+    private JButton pushButton, popButton, peekButton, clearButton, toggleThemeButton, batchButton, threadsButton;
+    private JButton undoButton, redoButton, findButton, newStackButton, closeStackButton, playButton;
+    private JSlider speedSlider, timelineSlider;
+    // Set while the timeline slider follows the engine, so it doesn't seek
+    private boolean syncingTimeline = false;
+    // Last occurrence found, so FIND again moves on to the next one down; reset by any change
+    private Object foundValue;
+    private int foundPosition, foundOrdinal;
+    private JLabel operationLabel, statsLabel, searchLabel, titleLabel;
+    private JList<String> historyList;
+    private AnimationClock animationClock;
+    private ContentionWorkload workload;
+    private final EdtWatchdog watchdog;
+    private CommandServer commandServer;
+    private TracePlayer player;
+    private Timer workloadTimer;
+    private final StartupTimings timings;
 
     private boolean isDarkMode = false;
-    private String selectedDataType = null;
-    private boolean isDataTypeLocked = false;
-
-    private static final int ELEMENT_HEIGHT = 60;
-    private static final int ELEMENT_WIDTH = 200;
-    private static final int ANIMATION_STEPS = 25;
-    private static final int ROUNDNESS = 15;
-    private static final int MAX_HISTORY_ITEMS = 10;
-    private static final int MAX_STACK_SIZE = 20;
-    private static final int ARROW_SIZE = 30;
-    private static final int HIGHLIGHT_DURATION = 3000;
+
+    static final int ELEMENT_HEIGHT = 60;
+    static final int ELEMENT_WIDTH = 200;
+    static final int ANIMATION_STEPS = 25;
+    static final int ROUNDNESS = 15;
+    static final int ARROW_SIZE = 30;
+    static final int HIGHLIGHT_DURATION = 3000;
+    static final int PUSH_ARROW_DURATION = 2000;
+    private static final int WORKLOAD_SAMPLE_INTERVAL = 250;
+    private static final int MAX_RECORDED_STALLS = 100;
+    // Undo keeps at most this many versions, or fewer if they hold more nodes than the limit below
+    private static final int MAX_UNDO_VERSIONS = 1_000_000;
+    private static final long MAX_UNDO_NODES = 4_000_000;
+    // Each wheel notch or zoom key scales rows by this much
+    static final double ZOOM_STEP = 1.25;
 
     // Color schemes
-    private final Color LIGHT_BG = new Color(245, 245, 245);
-    private final Color DARK_BG = new Color(40, 42, 54);
-    private final Color LIGHT_ELEMENT = new Color(220, 220, 220);
-    private final Color DARK_ELEMENT = new Color(68, 71, 90);
-    private final Color ACCENT_COLOR = new Color(100, 149, 237);
-    private final Color DARK_ACCENT = new Color(80, 250, 123);
-    private final Color PEEK_COLOR = new Color(255, 193, 7);
-    private final Color HIGHLIGHT_COLOR = new Color(255, 215, 0, 150);
+    static final Color LIGHT_BG = new Color(245, 245, 245);
+    static final Color DARK_BG = new Color(40, 42, 54);
+    static final Color LIGHT_ELEMENT = new Color(220, 220, 220);
+    static final Color DARK_ELEMENT = new Color(68, 71, 90);
+    static final Color ACCENT_COLOR = new Color(100, 149, 237);
+    static final Color DARK_ACCENT = new Color(80, 250, 123);
+    static final Color PEEK_COLOR = new Color(255, 193, 7);
+    static final Color HIGHLIGHT_COLOR = new Color(255, 215, 0, 150);
 
     public StackVisualizer() {
+        this(null);
+    }
+
+    /** Creates the window, restoring whatever state the journal recovered. */
+    public StackVisualizer(OperationJournal journal) {
+        this(journal, new StartupTimings(), false);
+    }
+
+    /**
+     * Creates the window. With fastStartup only the stack and the controls are
+     * built here; the history panel follows once the first frame is painted.
+     */
+    public StackVisualizer(OperationJournal journal, StartupTimings timings, boolean fastStartup) {
+        this.timings = timings;
+        history = new HistoryLog(Integer.getInteger("stackvisualizer.historyCapacity", StackEngine.DEFAULT_HISTORY_CAPACITY));
+        engine = new StackEngine(history, journal);
+        engine.enableTimeline(MAX_UNDO_VERSIONS, MAX_UNDO_NODES);
+        // A threshold of 0 turns the watchdog off
+        int stallThreshold = Integer.getInteger("stackvisualizer.stallThreshold", 100);
+        watchdog = stallThreshold > 0 ? new EdtWatchdog(stallThreshold, MAX_RECORDED_STALLS) : null;
         setTitle("Stack Visualizer");
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setSize(1100, 850);
@@ -71,13 +109,17 @@ public class StackVisualizer extends JFrame {
         // Main content panel
         JPanel contentPanel = new JPanel(new BorderLayout());
 
-        // Stack panel with scroll
-        stackPanel = new StackPanel();
-        JScrollPane scrollPane = new JScrollPane(stackPanel);
-        scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
-        scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
-        scrollPane.setBorder(BorderFactory.createEmptyBorder());
-        contentPanel.add(scrollPane, BorderLayout.CENTER);
+        // Stacks side by side, all on one clock and one repaint coalescer
+        animationClock = new AnimationClock(25);
+        workspace = new StackWorkspace(animationClock, new RepaintCoalescer());
+        StackWorkspace.Slot first = workspace.add(engine);
+        stackPanel = first.getPanel();
+        minimap = first.getMinimap();
+        JScrollPane workspaceScroll = new JScrollPane(workspace);
+        workspaceScroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_NEVER);
+        workspaceScroll.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        workspaceScroll.setBorder(BorderFactory.createEmptyBorder());
+        contentPanel.add(workspaceScroll, BorderLayout.CENTER);
 
         // Control Panel (now at top)
         JPanel controlPanel = new JPanel(new GridBagLayout());
@@ -178,6 +220,38 @@ public class StackVisualizer extends JFrame {
         clearButton.setToolTipText("Clear stack (Alt+C)");
         clearButton.setMnemonic(KeyEvent.VK_C);
 
+        batchButton = createStyledButton("BATCH", new Color(111, 66, 193));
+        batchButton.setToolTipText("Push or pop many elements at once (Alt+B)");
+        batchButton.setMnemonic(KeyEvent.VK_B);
+
+        threadsButton = createStyledButton("THREADS", new Color(253, 126, 20));
+        threadsButton.setToolTipText("Run concurrent stack backends under load (Alt+R)");
+        threadsButton.setMnemonic(KeyEvent.VK_R);
+
+        undoButton = createStyledButton("UNDO", new Color(23, 162, 184));
+        undoButton.setToolTipText("Undo the last change (Ctrl+Z, Alt+U)");
+        undoButton.setMnemonic(KeyEvent.VK_U);
+
+        redoButton = createStyledButton("REDO", new Color(23, 162, 184));
+        redoButton.setToolTipText("Redo an undone change (Ctrl+Y, Alt+Y)");
+        redoButton.setMnemonic(KeyEvent.VK_Y);
+
+        findButton = createStyledButton("FIND", new Color(52, 58, 64));
+        findButton.setToolTipText("Find the value in the search box; again for the next one down (Ctrl+F, Alt+F)");
+        findButton.setMnemonic(KeyEvent.VK_F);
+
+        playButton = createStyledButton("PLAY", new Color(232, 62, 140));
+        playButton.setToolTipText("Play a trace of operations at a chosen rate (Alt+L)");
+        playButton.setMnemonic(KeyEvent.VK_L);
+
+        newStackButton = createStyledButton("NEW", new Color(40, 167, 69));
+        newStackButton.setToolTipText("Open another stack beside the others (Alt+N)");
+        newStackButton.setMnemonic(KeyEvent.VK_N);
+
+        closeStackButton = createStyledButton("CLOSE", new Color(108, 117, 125));
+        closeStackButton.setToolTipText("Close the selected stack (Alt+W)");
+        closeStackButton.setMnemonic(KeyEvent.VK_W);
+
         toggleThemeButton = createStyledButton("THEME", new Color(32, 201, 151));
         toggleThemeButton.setToolTipText("Toggle dark/light mode (Alt+T)");
         toggleThemeButton.setMnemonic(KeyEvent.VK_T);
@@ -191,9 +265,23 @@ public class StackVisualizer extends JFrame {
         speedSlider.setMinorTickSpacing(1);
         speedSlider.setFont(new Font("Segoe UI", Font.PLAIN, 12));
 
+        // Timeline of every version, for scrubbing back and forth
+        timelineSlider = new JSlider(0, 0, 0);
+        timelineSlider.setPreferredSize(new Dimension(240, 40));
+
+        // Search box; Enter finds like the FIND button
+        searchField = new JTextField();
+        searchField.setFont(new Font("Segoe UI", Font.PLAIN, 16));
+        searchField.setToolTipText("Value to find (Ctrl+F)");
+        searchLabel = new JLabel(" ");
+        searchLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+
         // Operation label
         operationLabel = new JLabel("Operations: 0");
         operationLabel.setFont(new Font("Segoe UI", Font.BOLD, 18));
+        // Live statistics of Integer stacks, updated in O(1) per operation
+        statsLabel = new JLabel(" ");
+        statsLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
 
         // Layout components in control panel
         gbc.gridx = 0; gbc.gridy = 0; gbc.weightx = 0.5;
@@ -226,10 +314,259 @@ public class StackVisualizer extends JFrame {
         gbc.gridx = 9; gbc.gridy = 0; gbc.weightx = 0.1;
         controlPanel.add(operationLabel, gbc);
 
+        // Second row for bulk and secondary operations
+        gbc.gridx = 0; gbc.gridy = 1; gbc.weightx = 0.5; gbc.gridwidth = 2;
+        controlPanel.add(statsLabel, gbc);
+        gbc.gridwidth = 1;
+
+        gbc.gridx = 2; gbc.gridy = 1; gbc.weightx = 0.1;
+        controlPanel.add(batchButton, gbc);
+
+        gbc.gridx = 3; gbc.gridy = 1; gbc.weightx = 0.1;
+        controlPanel.add(threadsButton, gbc);
+
+        gbc.gridx = 4; gbc.gridy = 1; gbc.weightx = 0.1;
+        controlPanel.add(undoButton, gbc);
+
+        gbc.gridx = 5; gbc.gridy = 1; gbc.weightx = 0.1;
+        controlPanel.add(redoButton, gbc);
+
+        gbc.gridx = 6; gbc.gridy = 1; gbc.weightx = 0.1;
+        controlPanel.add(playButton, gbc);
+
+        gbc.gridx = 7; gbc.gridy = 1; gbc.weightx = 0.1;
+        controlPanel.add(new JLabel("Timeline:"), gbc);
+
+        gbc.gridx = 8; gbc.gridy = 1; gbc.weightx = 0.3; gbc.gridwidth = 2;
+        controlPanel.add(timelineSlider, gbc);
+        gbc.gridwidth = 1;
+
+        // Third row for search
+        gbc.gridx = 0; gbc.gridy = 2; gbc.weightx = 0.5; gbc.gridwidth = 2;
+        controlPanel.add(searchField, gbc);
+        gbc.gridwidth = 1;
+
+        gbc.gridx = 2; gbc.gridy = 2; gbc.weightx = 0.1;
+        controlPanel.add(findButton, gbc);
+
+        gbc.gridx = 3; gbc.gridy = 2; gbc.weightx = 0.4; gbc.gridwidth = 4;
+        controlPanel.add(searchLabel, gbc);
+        gbc.gridwidth = 1;
+
+        gbc.gridx = 7; gbc.gridy = 2; gbc.weightx = 0.1;
+        controlPanel.add(newStackButton, gbc);
+
+        gbc.gridx = 8; gbc.gridy = 2; gbc.weightx = 0.1;
+        controlPanel.add(closeStackButton, gbc);
+
         // Add control panel to content panel (top)
         contentPanel.add(controlPanel, BorderLayout.NORTH);
 
-        // History Panel
+        add(contentPanel, BorderLayout.CENTER);
+        if (!fastStartup) {
+            add(createHistoryPanel(), BorderLayout.SOUTH);
+        }
+
+        // Listeners
+        pushButton.addActionListener(e -> watched("push", this::pushElement));
+        popButton.addActionListener(e -> watched("pop", this::popElement));
+        peekButton.addActionListener(e -> watched("peek", this::peekElement));
+        clearButton.addActionListener(e -> watched("clear", this::clearStack));
+        batchButton.addActionListener(e -> watched("batch", this::showBatchDialog));
+        threadsButton.addActionListener(e -> watched("threads", this::showWorkloadDialog));
+        toggleThemeButton.addActionListener(e -> watched("theme", this::toggleTheme));
+        undoButton.addActionListener(e -> watched("undo", this::undo));
+        redoButton.addActionListener(e -> watched("redo", this::redo));
+        findButton.addActionListener(e -> watched("find", this::findValue));
+        playButton.addActionListener(e -> watched("play", this::showPlayDialog));
+        newStackButton.addActionListener(e -> watched("newStack", this::newStack));
+        closeStackButton.addActionListener(e -> watched("closeStack", this::closeStack));
+        workspace.setActiveChangedAction(this::activate);
+        searchField.addActionListener(e -> watched("find", this::findValue));
+        speedSlider.addChangeListener(e -> updateAnimationSpeed());
+        timelineSlider.addChangeListener(e -> {
+            if (!syncingTimeline) watched("seek", () -> seek(timelineSlider.getValue()));
+        });
+        inputField.addActionListener(e -> watched("push", this::pushElement));
+
+        // Keyboard shortcuts
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+                KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, InputEvent.ALT_DOWN_MASK), "push");
+        getRootPane().getActionMap().put("push", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                watched("push", StackVisualizer.this::pushElement);
+            }
+        });
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+                KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undo");
+        getRootPane().getActionMap().put("undo", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                watched("undo", StackVisualizer.this::undo);
+            }
+        });
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+                KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo");
+        getRootPane().getActionMap().put("redo", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                watched("redo", StackVisualizer.this::redo);
+            }
+        });
+        // The journal only knows the live state, so a version being viewed is adopted on exit
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (commandServer != null) commandServer.close();
+                for (StackWorkspace.Slot slot : workspace.getSlots()) {
+                    slot.getEngine().adoptVersion();
+                }
+            }
+        });
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+                KeyStroke.getKeyStroke(KeyEvent.VK_D, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "debugRepaint");
+        getRootPane().getActionMap().put("debugRepaint", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                stackPanel.setDebugRepaint(!stackPanel.isDebugRepaint());
+            }
+        });
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+                KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "performanceOverlay");
+        getRootPane().getActionMap().put("performanceOverlay", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                stackPanel.setPerformanceOverlayVisible(!stackPanel.isPerformanceOverlayVisible());
+            }
+        });
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+                KeyStroke.getKeyStroke(KeyEvent.VK_S, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "exportStalls");
+        getRootPane().getActionMap().put("exportStalls", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                exportStalls();
+            }
+        });
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+                KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK), "search");
+        getRootPane().getActionMap().put("search", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                searchField.requestFocusInWindow();
+                searchField.selectAll();
+            }
+        });
+        InputMap keys = getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, InputEvent.CTRL_DOWN_MASK), "zoomIn");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_ADD, InputEvent.CTRL_DOWN_MASK), "zoomIn");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, InputEvent.CTRL_DOWN_MASK), "zoomOut");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_SUBTRACT, InputEvent.CTRL_DOWN_MASK), "zoomOut");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_0, InputEvent.CTRL_DOWN_MASK), "resetZoom");
+        getRootPane().getActionMap().put("zoomIn", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                stackPanel.setZoom(stackPanel.getZoom() * ZOOM_STEP);
+            }
+        });
+        getRootPane().getActionMap().put("zoomOut", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                stackPanel.setZoom(stackPanel.getZoom() / ZOOM_STEP);
+            }
+        });
+        getRootPane().getActionMap().put("resetZoom", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                stackPanel.setZoom(1.0);
+            }
+        });
+        if (Boolean.getBoolean("stackvisualizer.performanceOverlay")) {
+            stackPanel.setPerformanceOverlayVisible(true);
+        }
+
+        updateAnimationSpeed();
+        updateTheme();
+        restoreFromJournal();
+        openCommandServer();
+        timings.mark("buildWindow");
+        first.getPanel().runAfterFirstPaint(this::finishStartup);
+    }
+
+    // Opt-in: -Dstackvisualizer.commandPort=N (0 for any free port) or -Dstackvisualizer.commandSocket=PATH
+    private void openCommandServer() {
+        Integer port = Integer.getInteger("stackvisualizer.commandPort");
+        String socket = System.getProperty("stackvisualizer.commandSocket");
+        if (port == null && socket == null) return;
+        try {
+            commandServer = socket != null
+                    ? CommandServer.openUnix(socket, animationClock, () -> engine, this::commandsApplied)
+                    : CommandServer.openTcp(port, animationClock, () -> engine, this::commandsApplied);
+            System.err.println("Command server listening on " + commandServer.getAddress());
+        } catch (IOException e) {
+            System.err.println("Command server disabled: " + e.getMessage());
+        }
+    }
+
+    // Called once per frame in which the command server applied commands to the selected stack
+    private void commandsApplied() {
+        if (engine.isDataTypeLocked()) {
+            dataTypeCombo.setSelectedItem(engine.getSelectedDataType());
+        }
+        historyChanged();
+        modelChanged();
+        showMergedChanges();
+    }
+
+    // Redraws the stack after operations that were not animated one by one; the summary
+    // and value index catch up from how far the model shrank, so any mix of them is covered
+    private void showMergedChanges() {
+        stackPanel.cancelAnimations();
+        stackPanel.stackResized();
+        int size = engine.getModel().size();
+        if (size > 0) {
+            stackPanel.scrollRectToVisible(stackPanel.getRowBounds(size - 1));
+        }
+        stackPanel.repaint();
+    }
+
+    // Opens an empty stack with its own type lock, history and timeline
+    private void newStack() {
+        HistoryLog log = new HistoryLog(Integer.getInteger("stackvisualizer.historyCapacity", StackEngine.DEFAULT_HISTORY_CAPACITY));
+        StackEngine added = new StackEngine(log, null);
+        added.enableTimeline(MAX_UNDO_VERSIONS, MAX_UNDO_NODES);
+        workspace.setActive(workspace.add(added));
+    }
+
+    private void closeStack() {
+        StackWorkspace.Slot slot = workspace.getActive();
+        if (workspace.getSlots().size() == 1) {
+            showMessage("The last stack cannot be closed");
+            return;
+        }
+        if (slot == workspace.getSlots().get(0)) {
+            showMessage("The first stack is saved between sessions and cannot be closed");
+            return;
+        }
+        workspace.remove(slot);
+    }
+
+    // Points the controls at the workspace's active stack
+    private void activate() {
+        StackWorkspace.Slot slot = workspace.getActive();
+        StackPanel previous = stackPanel;
+        // A trace plays into the stack it started on, so it stops when another is selected
+        stopPlayback();
+        engine = slot.getEngine();
+        history = engine.getHistory();
+        stackPanel = slot.getPanel();
+        minimap = slot.getMinimap();
+        if (previous != stackPanel) {
+            // Overlays follow the selection rather than staying on the old stack
+            stackPanel.setWorkloadStats(previous.getWorkloadStats());
+            previous.setWorkloadStats(null);
+            stackPanel.setPerformanceOverlayVisible(previous.isPerformanceOverlayVisible());
+            previous.setPerformanceOverlayVisible(false);
+        }
+        if (historyList != null) historyList.setModel(history);
+        if (engine.isDataTypeLocked()) {
+            dataTypeCombo.setSelectedItem(engine.getSelectedDataType());
+        }
+        modelChanged();
+        historyChanged();
+    }
+
+    private JPanel createHistoryPanel() {
         JPanel historyPanel = new JPanel(new BorderLayout());
         historyPanel.setBorder(BorderFactory.createTitledBorder(
                 BorderFactory.createEmptyBorder(15, 20, 20, 20),
@@ -239,51 +576,53 @@ public class StackVisualizer extends JFrame {
                 new Font("Segoe UI", Font.BOLD, 18)
         ));
 
-        historyArea = new JTextArea(4, 25);
-        historyArea.setFont(new Font("Consolas", Font.PLAIN, 18));
-        historyArea.setEditable(false);
-        historyArea.setLineWrap(true);
-        historyArea.setWrapStyleWord(true);
-        historyArea.setBorder(BorderFactory.createCompoundBorder(
+        // Fixed cell size lets JList lay out and paint only the visible rows
+        historyList = new JList<>(history);
+        historyList.setFont(new Font("Consolas", Font.PLAIN, 18));
+        historyList.setVisibleRowCount(4);
+        historyList.setPrototypeCellValue("• Batch pushed 1000000 values, #########");
+        historyList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, "• " + value, index, isSelected, cellHasFocus);
+                return this;
+            }
+        });
+        historyList.setBorder(BorderFactory.createCompoundBorder(
                 BorderFactory.createLineBorder(Color.GRAY, 1),
                 BorderFactory.createEmptyBorder(12, 12, 12, 12)
         ));
 
-        JScrollPane historyScroll = new JScrollPane(historyArea);
+        JScrollPane historyScroll = new JScrollPane(historyList);
         historyScroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         historyPanel.add(historyScroll, BorderLayout.CENTER);
 
-        // Add panels to frame
-        add(contentPanel, BorderLayout.CENTER);
-        add(historyPanel, BorderLayout.SOUTH);
-
-        // Listeners
-        pushButton.addActionListener(e -> pushElement());
-        popButton.addActionListener(e -> popElement());
-        peekButton.addActionListener(e -> peekElement());
-        clearButton.addActionListener(e -> clearStack());
-        toggleThemeButton.addActionListener(e -> toggleTheme());
-        speedSlider.addChangeListener(e -> updateAnimationSpeed());
-        inputField.addActionListener(e -> pushElement());
+        return historyPanel;
+    }
 
-        // Keyboard shortcuts
-        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
-                KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, InputEvent.ALT_DOWN_MASK), "push");
-        getRootPane().getActionMap().put("push", new AbstractAction() {
-            public void actionPerformed(ActionEvent e) {
-                pushElement();
-            }
-        });
+    // Runs once the first frame is on screen
+    private void finishStartup() {
+        timings.mark("firstFrame");
+        if (historyList == null) {
+            add(createHistoryPanel(), BorderLayout.SOUTH);
+            updateTheme();
+            validate();
+            historyChanged();
+        }
+        // Started only now so building the window doesn't count as a stall
+        if (watchdog != null) watchdog.start();
+        timings.mark("deferredUi");
+        if (Boolean.getBoolean("stackvisualizer.startupTimings")) {
+            System.err.print(timings.report());
+        }
+    }
 
-        animationTimer = new Timer(25, e -> animate());
-        peekHighlightTimer = new Timer(HIGHLIGHT_DURATION, e -> {
-            showPeekHighlight = false;
-            stackPanel.repaint();
-            peekHighlightTimer.stop();
-        });
-        peekHighlightTimer.setRepeats(false);
-        updateAnimationSpeed();
-        updateTheme();
+    private void restoreFromJournal() {
+        if (engine.isDataTypeLocked()) {
+            dataTypeCombo.setSelectedItem(engine.getSelectedDataType());
+        }
+        modelChanged();
+        historyChanged();
     }
 
     private JButton createStyledButton(String text, Color bgColor) {
@@ -318,125 +657,466 @@ public class StackVisualizer extends JFrame {
 
     private void pushElement() {
         String input = inputField.getText().trim();
-        if (input.equals("") || input.equals("Enter value")) {
-            showMessage("Please enter a value");
+        if (input.equals("Enter value")) input = "";
+
+        try {
+            engine.push(input, (String) dataTypeCombo.getSelectedItem());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            showMessage(e.getMessage());
             return;
         }
+        int top = engine.getModel().size() - 1;
+        inputField.setText("");
+        historyChanged();
+        modelChanged();
+
+        stackPanel.stackResized();
+        stackPanel.scrollRectToVisible(stackPanel.getRowBounds(top));
+        stackPanel.animatePush(top, getAnimationDuration());
+        // Show push arrow indicator on left side
+        stackPanel.showPushArrow(top, PUSH_ARROW_DURATION);
+    }
+
+    private void showBatchDialog() {
+        JTextArea valuesArea = new JTextArea(8, 30);
+        valuesArea.setFont(new Font("Consolas", Font.PLAIN, 16));
+        JSpinner randomCount = new JSpinner(new SpinnerNumberModel(1000, 1, engine.getMaxSize(), 100));
+        JSpinner popCount = new JSpinner(new SpinnerNumberModel(1, 1, engine.getMaxSize(), 1));
+        JPanel panel = new JPanel(new BorderLayout(0, 10));
+        panel.add(new JLabel("Values to push (separated by commas or new lines):"), BorderLayout.NORTH);
+        panel.add(new JScrollPane(valuesArea), BorderLayout.CENTER);
+        JPanel countsPanel = new JPanel(new GridLayout(2, 2, 10, 5));
+        countsPanel.add(new JLabel("Random values to push:"));
+        countsPanel.add(randomCount);
+        countsPanel.add(new JLabel("Elements to pop:"));
+        countsPanel.add(popCount);
+        panel.add(countsPanel, BorderLayout.SOUTH);
+
+        String[] options = {"Push list", "Push random", "Push file...", "Pop", "Cancel"};
+        int choice = JOptionPane.showOptionDialog(this, panel, "Batch Operations",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, options, options[0]);
+        switch (choice) {
+            case 0:
+                pushBatch(valuesArea.getText());
+                break;
+            case 1:
+                pushRandom((Integer) randomCount.getValue());
+                break;
+            case 2:
+                pushFile();
+                break;
+            case 3:
+                popBatch((Integer) popCount.getValue());
+                break;
+            default:
+                break;
+        }
+    }
 
-        if (stack.size() >= MAX_STACK_SIZE) {
-            showMessage("Stack overflow - maximum size reached (" + MAX_STACK_SIZE + ")");
-            return;
+    private void pushBatch(String text) {
+        try {
+            commitBatch(StackEngine.parseBatch(text, (String) dataTypeCombo.getSelectedItem()));
+        } catch (IllegalArgumentException e) {
+            showMessage(e.getMessage());
         }
+    }
 
+    private void pushFile() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Push values from a file (separated by commas or new lines)");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = chooser.getSelectedFile();
         String dataType = (String) dataTypeCombo.getSelectedItem();
-        try {
-            Object value = parseInput(input, dataType);
-            if (value == null) return;
-
-            if (selectedDataType == null) {
-                selectedDataType = dataType;
-                isDataTypeLocked = true;
-                dataTypeCombo.setEnabled(false);
-            } else if (!dataType.equals(selectedDataType)) {
-                showMessage("Stack type locked to " + selectedDataType);
-                return;
+        if (engine.isDataTypeLocked() && !dataType.equals(engine.getSelectedDataType())) {
+            showMessage("Stack type locked to " + engine.getSelectedDataType());
+            return;
+        }
+        int capacity = engine.getRemainingCapacity();
+
+        // Large files are parsed off the EDT; the batch is committed back on it
+        batchButton.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<StackModel, Void>() {
+            @Override
+            protected StackModel doInBackground() throws IOException {
+                return StackEngine.parseFile(file, dataType, capacity);
             }
 
-            stack.add(value);
-            elementToAnimate = value;
-            animationStep = 0;
-            animationAlpha = 0.0f;
-            animationY = (stackPanel.getHeight() - ELEMENT_HEIGHT - 20) - (stack.size() - 1) * ELEMENT_HEIGHT;
-            isPushAnimation = true;
-            animationTimer.start();
-            inputField.setText("");
-            addToHistory("Pushed: " + value);
-            updateOperationCount();
-
-            // Show push arrow indicator on left side
-            showPushArrow = true;
-            pushArrowY = (stackPanel.getHeight() - ELEMENT_HEIGHT - 20) - (stack.size() - 1) * ELEMENT_HEIGHT;
-            stackPanel.repaint();
-            new Timer(2000, e -> {
-                showPushArrow = false;
-                stackPanel.repaint();
-                ((Timer)e.getSource()).stop();
-            }).start();
-        } catch (NumberFormatException e) {
-            showMessage("Invalid number format");
-        }
-    }
-
-    private Object parseInput(String input, String dataType) {
-        switch (dataType) {
-            case "Integer":
+            @Override
+            protected void done() {
+                batchButton.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
                 try {
-                    return Integer.parseInt(input);
-                } catch (NumberFormatException e) {
-                    showMessage("Invalid integer format");
-                    return null;
-                }
-            case "Character":
-                if (input.length() != 1) {
-                    showMessage("Please enter exactly one character");
-                    return null;
+                    commitBatch(get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    showMessage(cause instanceof IOException ? "Cannot read " + file.getName() + ": " + cause.getMessage()
+                            : cause.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                return input.charAt(0);
-            case "String":
-                if (input.length() > 20) {
-                    showMessage("String too long (max 20 chars)");
-                    return null;
+            }
+        }.execute();
+    }
+
+    private void pushRandom(int count) {
+        commitBatch(StackEngine.randomBatch((String) dataTypeCombo.getSelectedItem(), count, new Random()));
+    }
+
+    /** Pushes a validated batch with one model update, one history entry and one repaint. */
+    private void commitBatch(StackModel staged) {
+        try {
+            engine.pushAll(staged);
+        } catch (IllegalStateException e) {
+            showMessage(e.getMessage());
+            return;
+        }
+        historyChanged();
+        modelChanged();
+
+        stackPanel.stackResized();
+        stackPanel.scrollRectToVisible(stackPanel.getRowBounds(engine.getModel().size() - 1));
+        stackPanel.repaint();
+    }
+
+    private void popBatch(int count) {
+        try {
+            engine.pop(count);
+        } catch (IllegalStateException e) {
+            showMessage(e.getMessage());
+            return;
+        }
+        historyChanged();
+        modelChanged();
+        stackPanel.stackResized();
+        stackPanel.repaint();
+    }
+
+    private void showWorkloadDialog() {
+        if (workload != null && !workload.isFinished()) {
+            workload.stop();
+            return;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        JSpinner producers = new JSpinner(new SpinnerNumberModel(Math.max(1, cores / 2), 1, 1024, 1));
+        JSpinner consumers = new JSpinner(new SpinnerNumberModel(Math.max(1, cores / 2), 1, 1024, 1));
+        JSpinner seconds = new JSpinner(new SpinnerNumberModel(5, 1, 600, 1));
+        JCheckBox virtualThreads = new JCheckBox("Virtual threads");
+        virtualThreads.setEnabled(ContentionWorkload.isVirtualThreadSupported());
+        if (!virtualThreads.isEnabled()) virtualThreads.setToolTipText("Needs Java 21 or newer");
+
+        JPanel panel = new JPanel(new GridLayout(0, 2, 10, 5));
+        List<JCheckBox> backendBoxes = new ArrayList<>();
+        for (String name : ConcurrentStack.names()) {
+            JCheckBox box = new JCheckBox(name, true);
+            backendBoxes.add(box);
+        }
+        panel.add(new JLabel("Backends:"));
+        panel.add(backendBoxes.get(0));
+        for (int i = 1; i < backendBoxes.size(); i++) {
+            panel.add(new JLabel());
+            panel.add(backendBoxes.get(i));
+        }
+        panel.add(new JLabel("Producer threads:"));
+        panel.add(producers);
+        panel.add(new JLabel("Consumer threads:"));
+        panel.add(consumers);
+        panel.add(new JLabel("Seconds per backend:"));
+        panel.add(seconds);
+        panel.add(new JLabel());
+        panel.add(virtualThreads);
+
+        String[] options = {"Run", "Hide stats", "Cancel"};
+        int choice = JOptionPane.showOptionDialog(this, panel, "Concurrent Backends",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, options, options[0]);
+        if (choice == 1) {
+            stackPanel.setWorkloadStats(null);
+            return;
+        }
+        if (choice != 0) return;
+
+        List<ConcurrentStack> backends = new ArrayList<>();
+        for (JCheckBox box : backendBoxes) {
+            if (box.isSelected()) backends.add(ConcurrentStack.forName(box.getText()));
+        }
+        if (backends.isEmpty()) {
+            showMessage("Please select at least one backend");
+            return;
+        }
+        workload = new ContentionWorkload(backends, (Integer) producers.getValue(), (Integer) consumers.getValue(),
+                virtualThreads.isSelected(), 1000L * (Integer) seconds.getValue());
+        workload.start();
+        threadsButton.setText("STOP");
+        // Counters are sampled on the EDT; the workers never touch Swing
+        workloadTimer = new Timer(WORKLOAD_SAMPLE_INTERVAL, e -> sampleWorkload());
+        workloadTimer.start();
+        sampleWorkload();
+    }
+
+    private void showPlayDialog() {
+        if (player != null && player.isPlaying()) {
+            stopPlayback();
+            return;
+        }
+        JSpinner rate = new JSpinner(new SpinnerNumberModel(10, 1, TracePlayer.MAX_RATE, 10));
+        JSpinner randomCount = new JSpinner(new SpinnerNumberModel(1000, 1, engine.getMaxSize(), 100));
+        JPanel panel = new JPanel(new GridLayout(0, 2, 10, 5));
+        panel.add(new JLabel("Operations per second:"));
+        panel.add(rate);
+        panel.add(new JLabel("Random operations:"));
+        panel.add(randomCount);
+
+        String[] options = {"Play file...", "Play random", "Cancel"};
+        int choice = JOptionPane.showOptionDialog(this, panel, "Play Trace",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, options, options[0]);
+        int opsPerSecond = (Integer) rate.getValue();
+        if (choice == 0) {
+            playFile(opsPerSecond);
+        } else if (choice == 1) {
+            String dataType = engine.isDataTypeLocked() ? engine.getSelectedDataType() : (String) dataTypeCombo.getSelectedItem();
+            play(TracePlayer.randomTrace(dataType, (Integer) randomCount.getValue(), new Random()), opsPerSecond);
+        }
+    }
+
+    private void playFile(int opsPerSecond) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Play a script of operations (type, push, pop, peek, clear, batch, random, popn)");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = chooser.getSelectedFile();
+
+        // The trace is read off the EDT and played on it
+        playButton.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<List<String>, Void>() {
+            @Override
+            protected List<String> doInBackground() throws IOException {
+                return TracePlayer.readTrace(file);
+            }
+
+            @Override
+            protected void done() {
+                playButton.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    play(get(), opsPerSecond);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    showMessage(cause instanceof IOException ? "Cannot read " + file.getName() + ": " + cause.getMessage()
+                            : cause.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                return input;
-            default:
-                return null;
+            }
+        }.execute();
+    }
+
+    private void play(List<String> trace, int opsPerSecond) {
+        stopPlayback();
+        player = new TracePlayer(trace, engine, opsPerSecond, animationClock, this::tracePlayed);
+        playButton.setText("STOP");
+        player.start();
+    }
+
+    private void stopPlayback() {
+        if (player == null) return;
+        player.stop();
+        player = null;
+        playButton.setText("PLAY");
+    }
+
+    // Animates a frame's single operation in the time it has; merged frames just show the result
+    private void tracePlayed(TracePlayer played, int applied, String command, String value) {
+        if (engine.isDataTypeLocked()) {
+            dataTypeCombo.setSelectedItem(engine.getSelectedDataType());
+        }
+        historyChanged();
+        modelChanged();
+        int size = engine.getModel().size();
+        long duration = Math.min(getAnimationDuration(), played.getOperationMillis());
+        if ("push".equals(command)) {
+            stackPanel.stackResized();
+            stackPanel.scrollRectToVisible(stackPanel.getRowBounds(size - 1));
+            stackPanel.animatePush(size - 1, duration);
+        } else if ("pop".equals(command)) {
+            stackPanel.animatePop(size, value, duration);
+            stackPanel.stackResized();
+        } else if ("peek".equals(command)) {
+            stackPanel.showPeekHighlight(size - 1, Math.min(HIGHLIGHT_DURATION, played.getOperationMillis()));
+        } else if (applied > 0) {
+            showMergedChanges();
+        }
+        if (played.isFinished() && played == player) {
+            stopPlayback();
+            if (played.getError() != null) {
+                showMessage(played.getError());
+            } else if (played.getRejected() > 0) {
+                showMessage(played.getRejected() + " of the " + played.getLength() + " operations were rejected");
+            }
+        }
+    }
+
+    private void sampleWorkload() {
+        stackPanel.setWorkloadStats(workload.sample());
+        if (workload.isFinished()) {
+            workloadTimer.stop();
+            threadsButton.setText("THREADS");
         }
     }
 
     private void popElement() {
-        if (stack.isEmpty()) {
-            showMessage("Stack is empty");
+        // The model is updated right away; the panel fades out a copy of the text
+        int top = engine.getModel().size() - 1;
+        String value;
+        try {
+            value = engine.pop();
+        } catch (IllegalStateException e) {
+            showMessage(e.getMessage());
             return;
         }
-        elementToAnimate = stack.get(stack.size() - 1);
-        animationStep = 0;
-        animationAlpha = 1.0f;
-        isPushAnimation = false;
-        animationY = (stackPanel.getHeight() - ELEMENT_HEIGHT - 20) - (stack.size() - 1) * ELEMENT_HEIGHT;
-        animationTimer.start();
+        historyChanged();
+        modelChanged();
+        stackPanel.animatePop(top, value, getAnimationDuration());
+        stackPanel.stackResized();
     }
 
     private void peekElement() {
-        if (stack.isEmpty()) {
-            showMessage("Stack is empty");
+        try {
+            engine.peek();
+        } catch (IllegalStateException e) {
+            showMessage(e.getMessage());
             return;
         }
-        Object top = stack.get(stack.size() - 1);
-        addToHistory("Peeked: " + top.toString());
+        historyChanged();
 
         // Show peek highlight
-        showPeekHighlight = true;
-        highlightY = (stackPanel.getHeight() - ELEMENT_HEIGHT - 20) - (stack.size() - 1) * ELEMENT_HEIGHT;
-        stackPanel.repaint();
-        peekHighlightTimer.start();
+        stackPanel.showPeekHighlight(engine.getModel().size() - 1, HIGHLIGHT_DURATION);
     }
 
     private void clearStack() {
-        if (stack.isEmpty()) {
-            showMessage("Stack is already empty");
+        try {
+            engine.clear();
+        } catch (IllegalStateException e) {
+            showMessage(e.getMessage());
             return;
         }
-        stack.clear();
-        elementToAnimate = null;
-        selectedDataType = null;
-        isDataTypeLocked = false;
-        dataTypeCombo.setEnabled(true);
-        historyQueue.clear();
-        historyArea.setText("");
-        updateOperationCount();
+        stackPanel.cancelAnimations();
+        modelChanged();
+        stackPanel.stackResized();
         stackPanel.repaint();
     }
 
+    /**
+     * Scrolls to the top-most occurrence of the searched value and highlights
+     * it; searching again for the same value moves to the next one down,
+     * wrapping at the bottom. Each step is O(1) through the panel's index.
+     */
+    private void findValue() {
+        StackModel model = engine.getModel();
+        if (model.isEmpty()) {
+            showMessage("Stack is empty");
+            return;
+        }
+        String input = searchField.getText().trim();
+        Object value;
+        try {
+            value = StackModel.parseValue(input, model.getDataType());
+        } catch (IllegalArgumentException e) {
+            showMessage(e.getMessage());
+            return;
+        }
+        ValueIndex index = stackPanel.getValueIndex();
+        int position = -1;
+        if (value.equals(foundValue)) {
+            position = index.findPrevious(foundPosition);
+            foundOrdinal++;
+        }
+        if (position < 0) {
+            position = index.findLast(value);
+            foundOrdinal = 1;
+        }
+        if (position < 0) {
+            foundValue = null;
+            searchLabel.setText(input + " is not on the stack");
+            return;
+        }
+        foundValue = value;
+        foundPosition = position;
+        searchLabel.setText(input + ": " + foundOrdinal + " of " + index.count(value) + " from the top, at position "
+                + (position + 1) + " from the bottom");
+        stackPanel.scrollToRow(position);
+        stackPanel.showPeekHighlight(position, HIGHLIGHT_DURATION);
+    }
+
+    private void undo() {
+        try {
+            engine.undo();
+        } catch (IllegalStateException e) {
+            showMessage(e.getMessage());
+            return;
+        }
+        versionChanged();
+    }
+
+    private void redo() {
+        try {
+            engine.redo();
+        } catch (IllegalStateException e) {
+            showMessage(e.getMessage());
+            return;
+        }
+        versionChanged();
+    }
+
+    private void seek(int version) {
+        if (version == engine.getTimeline().getCurrentVersion()) return;
+        engine.seek(version);
+        versionChanged();
+    }
+
+    // Shows another version; nothing is rebuilt, the panel draws the version directly
+    private void versionChanged() {
+        stackPanel.cancelAnimations();
+        if (engine.isDataTypeLocked()) {
+            dataTypeCombo.setSelectedItem(engine.getSelectedDataType());
+        }
+        modelChanged();
+        stackPanel.stackResized();
+        int size = engine.getModel().size();
+        if (size > 0) {
+            stackPanel.scrollRectToVisible(stackPanel.getRowBounds(size - 1));
+        }
+        stackPanel.repaint();
+    }
+
+    // Names the operation for the stall watchdog while it runs
+    private void watched(String operation, Runnable action) {
+        if (watchdog != null) {
+            watchdog.run(operation, action);
+        } else {
+            action.run();
+        }
+    }
+
+    private void exportStalls() {
+        if (watchdog == null) {
+            showMessage("The stall watchdog is off (-Dstackvisualizer.stallThreshold=0)");
+            return;
+        }
+        if (watchdog.getTotalStalls() == 0) {
+            showMessage("No UI stalls over " + watchdog.getThresholdMillis() + " ms so far");
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export UI stall log (" + watchdog.getTotalStalls() + " stalls)");
+        chooser.setSelectedFile(new File("stackvisualizer-stalls.txt"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(chooser.getSelectedFile()), StandardCharsets.UTF_8)) {
+            watchdog.export(out);
+        } catch (IOException e) {
+            showMessage("Cannot write " + chooser.getSelectedFile().getName() + ": " + e.getMessage());
+        }
+    }
+
     private void toggleTheme() {
         isDarkMode = !isDarkMode;
         updateTheme();
@@ -448,76 +1128,78 @@ public class StackVisualizer extends JFrame {
         Color elementColor = isDarkMode ? DARK_ELEMENT : LIGHT_ELEMENT;
 
         getContentPane().setBackground(bgColor);
-        stackPanel.setBackground(bgColor);
+        workspace.setDarkMode(isDarkMode, bgColor);
 
         inputField.setBackground(elementColor);
         inputField.setForeground(fgColor);
 
+        searchField.setBackground(elementColor);
+        searchField.setForeground(fgColor);
+        searchField.setCaretColor(fgColor);
+
         dataTypeCombo.setBackground(elementColor);
         dataTypeCombo.setForeground(fgColor);
 
-        historyArea.setBackground(elementColor);
-        historyArea.setForeground(fgColor);
+        if (historyList != null) {
+            historyList.setBackground(elementColor);
+            historyList.setForeground(fgColor);
+        }
 
         titleLabel.setBackground(isDarkMode ? DARK_ACCENT : ACCENT_COLOR);
 
-        stackPanel.repaint();
+        workspace.repaint();
     }
 
     private void updateAnimationSpeed() {
         int speed = speedSlider.getValue();
         int delay = 50 - (speed * 4);
-        animationTimer.setDelay(Math.max(10, delay));
+        animationClock.setFrameDelay(Math.max(10, delay));
     }
 
-    private void animate() {
-        animationStep++;
-        if (animationStep <= ANIMATION_STEPS) {
-            if (isPushAnimation) {
-                animationAlpha = (float) Math.sin((animationStep / (float) ANIMATION_STEPS) * Math.PI / 2);
-                animationY = (stackPanel.getHeight() - ELEMENT_HEIGHT - 20) - (stack.size() - 1) * ELEMENT_HEIGHT;
-            } else {
-                animationAlpha = 1.0f - (animationStep / (float) ANIMATION_STEPS);
-            }
-            stackPanel.repaint();
-        } else {
-            animationTimer.stop();
-            if (!isPushAnimation) {
-                stack.remove(stack.size() - 1);
-                addToHistory("Popped: " + elementToAnimate);
-                updateOperationCount();
-
-                if (stack.isEmpty()) {
-                    selectedDataType = null;
-                    isDataTypeLocked = false;
-                    dataTypeCombo.setEnabled(true);
-                }
-            }
-            elementToAnimate = null;
-            stackPanel.repaint();
-        }
+    // Same length as the old fixed ANIMATION_STEPS frames at the current speed
+    private long getAnimationDuration() {
+        return (long) ANIMATION_STEPS * animationClock.getFrameDelay();
     }
 
-    private void addToHistory(String message) {
-        if (historyQueue.size() >= MAX_HISTORY_ITEMS) {
-            historyQueue.poll();
+    private void historyChanged() {
+        // Ensure the newest entry stays visible
+        if (historyList != null && history.getSize() > 0) {
+            historyList.ensureIndexIsVisible(history.getSize() - 1);
         }
-        historyQueue.add(message);
-        updateHistoryArea();
     }
 
-    private void updateHistoryArea() {
-        StringBuilder sb = new StringBuilder();
-        for (String item : historyQueue) {
-            sb.append("• ").append(item).append("\n");
+    // Follows the engine after every operation: the model is replaced when the type locks
+    private void modelChanged() {
+        StackModel model = engine.getModel();
+        if (stackPanel.getModel() != model) {
+            stackPanel.setModel(model);
         }
-        historyArea.setText(sb.toString());
-        // Ensure history area stays visible
-        historyArea.setCaretPosition(historyArea.getDocument().getLength());
+        dataTypeCombo.setEnabled(!engine.isDataTypeLocked());
+        operationLabel.setText("Operations: " + model.size());
+        foundValue = null;
+        statsLabel.setText(getStatsText(model));
+        minimap.repaint();
+        workspace.getActive().updateHeader();
+
+        VersionTimeline timeline = engine.getTimeline();
+        syncingTimeline = true;
+        timelineSlider.getModel().setRangeProperties(timeline.getCurrentVersion(), 0,
+                timeline.getFirstVersion(), timeline.getLastVersion(), false);
+        syncingTimeline = false;
+        timelineSlider.setToolTipText(!engine.canSeek() ? "Off-heap String stacks keep no earlier states"
+                : "Step " + timeline.getCurrentVersion() + " of " + timeline.getLastVersion()
+                + " - drag to go back to any earlier state");
+        timelineSlider.setEnabled(engine.canSeek());
+        undoButton.setEnabled(engine.canUndo());
+        redoButton.setEnabled(engine.canRedo());
     }
 
-    private void updateOperationCount() {
-        operationLabel.setText("Operations: " + stack.size());
+    // Blank for other types and for past versions, which are not IntStacks
+    private static String getStatsText(StackModel model) {
+        if (!(model instanceof StackModel.IntStack) || model.isEmpty()) return " ";
+        IntAggregates stats = ((StackModel.IntStack) model).getAggregates();
+        return String.format(Locale.ROOT, "Min %d   Max %d   Sum %d   Mean %.2f   Mode %d (x%d)", stats.getMin(), stats.getMax(),
+                stats.getSum(), stats.getMean(), stats.getMode(), stats.getModeCount());
     }
 
     private void showMessage(String message) {
@@ -525,137 +1207,54 @@ public class StackVisualizer extends JFrame {
                 JOptionPane.INFORMATION_MESSAGE);
     }
 
-    class StackPanel extends JPanel {
-        public StackPanel() {
-            setOpaque(true);
-            setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+    // Replays the journal on the main thread, before the UI exists
+    private static OperationJournal openJournal() {
+        if (!Boolean.parseBoolean(System.getProperty("stackvisualizer.journal", "true"))) {
+            return null;
         }
-
-        @Override
-        public Dimension getPreferredSize() {
-            int height = Math.max(600, (stack.size() + 2) * ELEMENT_HEIGHT + 40);
-            return new Dimension(getWidth(), height);
+        File directory = new File(System.getProperty("stackvisualizer.journalDir",
+                System.getProperty("user.home") + File.separator + ".stackvisualizer"));
+        try {
+            return OperationJournal.open(directory,
+                    Integer.getInteger("stackvisualizer.historyCapacity", StackEngine.DEFAULT_HISTORY_CAPACITY));
+        } catch (IOException e) {
+            System.err.println("Journal disabled: " + e.getMessage());
+            return null;
         }
+    }
 
-        protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            Graphics2D g2 = (Graphics2D) g;
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-            int panelWidth = getWidth();
-            int x = (panelWidth - ELEMENT_WIDTH) / 2;
-            int baseY = getHeight() - ELEMENT_HEIGHT - 20;
-
-            // Draw stack base
-            g2.setColor(isDarkMode ? DARK_ACCENT : ACCENT_COLOR);
-            g2.fillRoundRect(x - 30, baseY + ELEMENT_HEIGHT - 15,
-                    ELEMENT_WIDTH + 60, 20, 15, 15);
-            g2.setColor(isDarkMode ? Color.DARK_GRAY : Color.LIGHT_GRAY);
-            g2.setStroke(new BasicStroke(3));
-            g2.drawRoundRect(x - 30, baseY + ELEMENT_HEIGHT - 15,
-                    ELEMENT_WIDTH + 60, 20, 15, 15);
-
-            // Draw stack elements
-            Color elementColor = isDarkMode ? DARK_ELEMENT : LIGHT_ELEMENT;
-            Color textColor = isDarkMode ? Color.WHITE : Color.BLACK;
-
-            for (int i = 0; i < stack.size(); i++) {
-                Object value = stack.get(i);
-                boolean isAnimating = (value.equals(elementToAnimate) && animationStep <= ANIMATION_STEPS && isPushAnimation);
-
-                int elementY = baseY - i * ELEMENT_HEIGHT;
-
-                if (value.equals(elementToAnimate) && !isPushAnimation && animationStep <= ANIMATION_STEPS) {
-                    continue;
-                }
-
-                // Element shadow
-                g2.setColor(new Color(0, 0, 0, 50));
-                g2.fillRoundRect(x + 5, elementY + 5, ELEMENT_WIDTH, ELEMENT_HEIGHT - 5, ROUNDNESS, ROUNDNESS);
-
-                // Element background
-                g2.setColor(isAnimating ?
-                        new Color(ACCENT_COLOR.getRed(), ACCENT_COLOR.getGreen(), ACCENT_COLOR.getBlue(), (int)(animationAlpha * 255)) :
-                        elementColor);
-                g2.fillRoundRect(x, elementY, ELEMENT_WIDTH, ELEMENT_HEIGHT - 5, ROUNDNESS, ROUNDNESS);
-
-                // Element border
-                g2.setColor(isDarkMode ? Color.DARK_GRAY : Color.GRAY);
-                g2.setStroke(new BasicStroke(2.0f));
-                g2.drawRoundRect(x, elementY, ELEMENT_WIDTH, ELEMENT_HEIGHT - 5, ROUNDNESS, ROUNDNESS);
-
-                // Element text
-                g2.setColor(textColor);
-                g2.setFont(new Font("Segoe UI", Font.BOLD, 22));
-                String text = value.toString();
-                FontMetrics fm = g2.getFontMetrics();
-                int textX = x + (ELEMENT_WIDTH - fm.stringWidth(text)) / 2;
-                int textY = elementY + (ELEMENT_HEIGHT - 5 + fm.getAscent()) / 2;
-                g2.drawString(text, textX, textY);
-            }
-
-            // Draw animating element (for pop)
-            if (!isPushAnimation && elementToAnimate != null && animationStep <= ANIMATION_STEPS) {
-                // Shadow
-                g2.setColor(new Color(0, 0, 0, (int)(animationAlpha * 50)));
-                g2.fillRoundRect(x + 5, animationY + 5, ELEMENT_WIDTH, ELEMENT_HEIGHT - 5, ROUNDNESS, ROUNDNESS);
-
-                // Element
-                g2.setColor(new Color(ACCENT_COLOR.getRed(), ACCENT_COLOR.getGreen(), ACCENT_COLOR.getBlue(), (int)(animationAlpha * 255)));
-                g2.fillRoundRect(x, animationY, ELEMENT_WIDTH, ELEMENT_HEIGHT - 5, ROUNDNESS, ROUNDNESS);
-
-                // Border
-                g2.setColor(isDarkMode ? Color.DARK_GRAY : Color.GRAY);
-                g2.setStroke(new BasicStroke(2.0f));
-                g2.drawRoundRect(x, animationY, ELEMENT_WIDTH, ELEMENT_HEIGHT - 5, ROUNDNESS, ROUNDNESS);
-
-                // Text
-                g2.setColor(new Color(textColor.getRed(), textColor.getGreen(), textColor.getBlue(), (int)(animationAlpha * 255)));
-                g2.setFont(new Font("Segoe UI", Font.BOLD, 22));
-                String text = elementToAnimate.toString();
-                FontMetrics fm = g2.getFontMetrics();
-                int textX = x + (ELEMENT_WIDTH - fm.stringWidth(text)) / 2;
-                int textY = animationY + (ELEMENT_HEIGHT - 5 + fm.getAscent()) / 2;
-                g2.drawString(text, textX, textY);
-            }
-
-            // Draw peek highlight
-            if (showPeekHighlight) {
-                g2.setColor(HIGHLIGHT_COLOR);
-                g2.fillRoundRect(x, highlightY, ELEMENT_WIDTH, ELEMENT_HEIGHT - 5, ROUNDNESS, ROUNDNESS);
-            }
-
-            // Draw push arrow indicator (on left side)
-            if (showPushArrow) {
-                int arrowX = x - ARROW_SIZE - 20;
-                int arrowY = pushArrowY + ELEMENT_HEIGHT / 2;
-
-                g2.setColor(isDarkMode ? DARK_ACCENT : ACCENT_COLOR);
-                g2.setStroke(new BasicStroke(3));
-
-                // Arrow line
-                g2.drawLine(arrowX, arrowY, arrowX + ARROW_SIZE, arrowY);
-
-                // Arrow head
-                Polygon arrowHead = new Polygon();
-                arrowHead.addPoint(arrowX + ARROW_SIZE, arrowY);
-                arrowHead.addPoint(arrowX + ARROW_SIZE - 10, arrowY - 7);
-                arrowHead.addPoint(arrowX + ARROW_SIZE - 10, arrowY + 7);
-                g2.fill(arrowHead);
-            }
-        }
+    // Loading the look and feel classes and the font tables is most of a cold start
+    private static LookAndFeel loadLookAndFeel() throws ReflectiveOperationException {
+        LookAndFeel lookAndFeel = (LookAndFeel) Class.forName(UIManager.getSystemLookAndFeelClassName())
+                .getDeclaredConstructor().newInstance();
+        new Font("Segoe UI", Font.PLAIN, 12).getFamily();
+        return lookAndFeel;
     }
 
     public static void main(String[] args) {
+        StartupTimings timings = new StartupTimings();
+        boolean fastStartup = Boolean.getBoolean("stackvisualizer.fastStartup");
+        // Fast startup loads the look and feel in the background while the journal replays
+        FutureTask<LookAndFeel> lookAndFeel = new FutureTask<>(StackVisualizer::loadLookAndFeel);
+        if (fastStartup) {
+            Thread loader = new Thread(lookAndFeel, "Startup Preloader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+        OperationJournal journal = openJournal();
+        timings.mark("journal");
         SwingUtilities.invokeLater(() -> {
             try {
-                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+                if (!fastStartup) lookAndFeel.run();
+                UIManager.setLookAndFeel(lookAndFeel.get());
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            timings.mark("lookAndFeel");
 
-            StackVisualizer app = new StackVisualizer();
+            StackVisualizer app = new StackVisualizer(journal, timings, fastStartup);
             app.setVisible(true);
+            timings.mark("show");
         });
     }
 }
\ No newline at end of file
@@ -0,0 +1,212 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several independent stacks side by side, each with its own engine (type
+ * lock, history and timeline), panel and minimap. Every panel runs on the
+ * one AnimationClock, repaints through the one RepaintCoalescer and draws
+ * cells from the first panel's sprites, so more stacks add no timers, no
+ * extra event-queue passes and no duplicate sprites. One stack at a time is
+ * active: the window's controls act on it.
+ */
+public class StackWorkspace extends JPanel implements Scrollable {
+    // Each stack gets at least this much width before the workspace scrolls sideways
+    private static final int MIN_SLOT_WIDTH = 330;
+
+    /** One stack of the workspace. */
+    public final class Slot {
+        private final StackEngine engine;
+        private final StackPanel panel;
+        private final StackMinimap minimap;
+        private final JLabel header = new JLabel(" ", SwingConstants.CENTER);
+        private final JPanel column = new JPanel(new BorderLayout());
+        private final int number;
+
+        Slot(StackEngine engine, int number) {
+            this.engine = engine;
+            this.number = number;
+            panel = new StackPanel(engine.getModel(), clock, repaints, sprites);
+            if (sprites == null) sprites = panel.getSpriteCache();
+            JScrollPane scrollPane = new JScrollPane(panel);
+            scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
+            scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+            scrollPane.setBorder(BorderFactory.createEmptyBorder());
+            scrollPane.getVerticalScrollBar().setUnitIncrement(StackVisualizer.ELEMENT_HEIGHT / 3);
+            minimap = new StackMinimap(panel, scrollPane.getViewport());
+
+            header.setFont(new Font("Segoe UI", Font.BOLD, 14));
+            header.setOpaque(true);
+            header.setBorder(BorderFactory.createEmptyBorder(4, 0, 4, 0));
+            column.add(header, BorderLayout.NORTH);
+            column.add(scrollPane, BorderLayout.CENTER);
+            column.add(minimap, BorderLayout.EAST);
+
+            // Ctrl+wheel zooms; the plain wheel still scrolls
+            panel.addMouseWheelListener(e -> {
+                if (e.isControlDown()) {
+                    panel.setZoom(panel.getZoom() * Math.pow(StackVisualizer.ZOOM_STEP, -e.getPreciseWheelRotation()));
+                } else {
+                    scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(panel, e, scrollPane));
+                }
+            });
+            MouseAdapter selector = new MouseAdapter() {
+                @Override
+                public void mousePressed(MouseEvent e) {
+                    setActive(Slot.this);
+                }
+            };
+            panel.addMouseListener(selector);
+            header.addMouseListener(selector);
+        }
+
+        public StackEngine getEngine() {
+            return engine;
+        }
+
+        public StackPanel getPanel() {
+            return panel;
+        }
+
+        public StackMinimap getMinimap() {
+            return minimap;
+        }
+
+        /** Shows the stack's number, type and size in its header. */
+        public void updateHeader() {
+            StackModel model = engine.getModel();
+            String type = engine.isDataTypeLocked() ? engine.getSelectedDataType() : "empty";
+            header.setText("Stack " + number + " - " + type + " - " + model.size());
+            boolean active = this == StackWorkspace.this.active;
+            Color accent = darkMode ? StackVisualizer.DARK_ACCENT : StackVisualizer.ACCENT_COLOR;
+            header.setBackground(active ? accent : getBackground());
+            header.setForeground(active ? (darkMode ? Color.BLACK : Color.WHITE) : (darkMode ? Color.WHITE : Color.BLACK));
+        }
+    }
+
+    private final AnimationClock clock;
+    private final RepaintCoalescer repaints;
+    private SpriteCache sprites;
+    private final List<Slot> slots = new ArrayList<>();
+    private Slot active;
+    private int nextNumber = 1;
+    private boolean darkMode = false;
+    private Runnable activeChanged = () -> { };
+
+    public StackWorkspace(AnimationClock clock, RepaintCoalescer repaints) {
+        super(new GridLayout(1, 0, 10, 0));
+        this.clock = clock;
+        this.repaints = repaints;
+    }
+
+    /** Runs action whenever another stack becomes active. */
+    public void setActiveChangedAction(Runnable action) {
+        activeChanged = action;
+    }
+
+    /** Adds a stack for engine at the right; the first stack added becomes active. */
+    public Slot add(StackEngine engine) {
+        Slot slot = new Slot(engine, nextNumber++);
+        slots.add(slot);
+        add(slot.column);
+        applyTheme(slot);
+        revalidate();
+        repaint();
+        if (active == null) {
+            setActive(slot);
+        } else {
+            slot.updateHeader();
+        }
+        return slot;
+    }
+
+    /** Removes slot; the stack to its left, or else the next one, becomes active. */
+    public void remove(Slot slot) {
+        int index = slots.indexOf(slot);
+        if (index < 0 || slots.size() == 1) {
+            throw new IllegalStateException("The last stack cannot be closed");
+        }
+        slot.panel.cancelAnimations();
+        slots.remove(index);
+        remove(slot.column);
+        revalidate();
+        repaint();
+        if (slot == active) {
+            active = null;
+            setActive(slots.get(Math.max(0, index - 1)));
+        }
+    }
+
+    public List<Slot> getSlots() {
+        return Collections.unmodifiableList(slots);
+    }
+
+    public Slot getActive() {
+        return active;
+    }
+
+    public void setActive(Slot slot) {
+        if (slot == active) return;
+        Slot previous = active;
+        active = slot;
+        if (previous != null) previous.updateHeader();
+        slot.updateHeader();
+        slot.column.scrollRectToVisible(new Rectangle(0, 0, slot.column.getWidth(), 1));
+        activeChanged.run();
+    }
+
+    public void setDarkMode(boolean darkMode, Color background) {
+        this.darkMode = darkMode;
+        setBackground(background);
+        for (Slot slot : slots) {
+            applyTheme(slot);
+            slot.updateHeader();
+        }
+    }
+
+    private void applyTheme(Slot slot) {
+        slot.column.setBackground(getBackground());
+        slot.panel.setBackground(getBackground());
+        slot.panel.setDarkMode(darkMode);
+        slot.minimap.setBackground(getBackground());
+        slot.minimap.repaint();
+    }
+
+    // ---- Scrollable: fills the viewport until the stacks need more room, then scrolls sideways ----
+
+    @Override
+    public Dimension getPreferredSize() {
+        Dimension size = super.getPreferredSize();
+        size.width = Math.max(size.width, slots.size() * (MIN_SLOT_WIDTH + 10));
+        return size;
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 40;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return MIN_SLOT_WIDTH;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return getParent() instanceof JViewport && getParent().getWidth() >= slots.size() * (MIN_SLOT_WIDTH + 10);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return true;
+    }
+}
@@ -0,0 +1,37 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Wall-clock times of the startup phases, from JVM launch to a fully built
+ * window. Phases are marked in order from main and then the EDT; each one
+ * ends when it is marked.
+ */
+public class StartupTimings {
+    private final long startNanos = System.nanoTime();
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> endNanos = new ArrayList<>();
+
+    /** Ends the phase named phase; the next one starts now. */
+    public synchronized void mark(String phase) {
+        phases.add(phase);
+        endNanos.add(System.nanoTime());
+    }
+
+    /** One line per phase with its own time and the total since JVM launch. */
+    public synchronized String report() {
+        // Read only now: the management classes would slow down startup itself
+        double launchMillis = ManagementFactory.getRuntimeMXBean().getUptime() - (System.nanoTime() - startNanos) / 1e6;
+        StringBuilder text = new StringBuilder("Startup timings (ms):\n");
+        text.append(String.format(Locale.ROOT, "  %-14s %8.1f %8.1f%n", "jvm", launchMillis, launchMillis));
+        long previous = startNanos;
+        for (int i = 0; i < phases.size(); i++) {
+            long end = endNanos.get(i);
+            text.append(String.format(Locale.ROOT, "  %-14s %8.1f %8.1f%n", phases.get(i),
+                    (end - previous) / 1e6, launchMillis + (end - startNanos) / 1e6));
+            previous = end;
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,185 @@
+import javax.swing.*;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Plays a trace of stack operations (the StackCli script format) into a
+ * StackEngine at a set rate, apart from any drawing. A timer ticks once per
+ * animation frame on the EDT and applies the operations that fell due since
+ * the last tick, each through the engine on its own, so the history, undo
+ * timeline, journal and final state are exactly those of running the trace
+ * by hand. The listener hears once per frame how many were applied: a single
+ * operation can be animated, while at rates above the frame rate several are
+ * merged into one frame and the states in between are never drawn.
+ */
+public class TracePlayer {
+    public static final int MAX_RATE = 100_000;
+    // Frames never spend more than this on operations, so the window keeps painting
+    private static final long FRAME_BUDGET_NANOS = 8_000_000;
+    // A player that falls behind catches up at most this far
+    private static final double MAX_BACKLOG_SECONDS = 0.25;
+
+    /** Hears on the EDT about each frame that applied operations. */
+    public interface Listener {
+        /**
+         * applied is how many lines ran this frame. When it is 1, command is
+         * its script keyword and value the popped or peeked element's text;
+         * otherwise both are null.
+         */
+        void played(TracePlayer player, int applied, String command, String value);
+    }
+
+    private final List<String> lines;
+    private final StackEngine engine;
+    private final Listener listener;
+    private final StackCli cli;
+    private final Timer timer;
+    private final double rate;
+    private int position = 0;
+    private int rejected = 0;
+    private String error;
+    private double owed = 0;
+    private long lastTickNanos;
+    // The keyword and value of the last operation applied
+    private String lastCommand, lastValue;
+
+    /** Plays lines, without blanks or comments, at rate operations per second. */
+    public TracePlayer(List<String> lines, StackEngine engine, double rate, AnimationClock clock, Listener listener) {
+        if (rate <= 0 || rate > MAX_RATE) {
+            throw new IllegalArgumentException("Rate must be between 1 and " + MAX_RATE + " operations per second");
+        }
+        this.lines = lines;
+        this.engine = engine;
+        this.rate = rate;
+        this.listener = listener;
+        cli = new StackCli(engine) {
+            @Override
+            void executed(String command, String value) {
+                lastCommand = command;
+                lastValue = value;
+            }
+        };
+        timer = new Timer(clock.getFrameDelay(), e -> tick(System.nanoTime()));
+        timer.setCoalesce(true);
+    }
+
+    /** Reads a script file, keeping only the operations. Touches no engine state, so it may run off the EDT. */
+    public static List<String> readTrace(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && line.charAt(0) != '#') lines.add(line);
+            }
+        }
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException(file.getName() + " holds no operations");
+        }
+        return lines;
+    }
+
+    /**
+     * A random walk of count pushes, pops and the odd peek, leaning towards
+     * pushes so the stack grows; values as in StackEngine.randomBatch.
+     */
+    public static List<String> randomTrace(String dataType, int count, Random random) {
+        StackModel values = StackEngine.randomBatch(dataType, count, random);
+        List<String> lines = new ArrayList<>(count + 1);
+        lines.add("type " + dataType);
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int roll = random.nextInt(20);
+            if (size > 0 && roll == 0) {
+                lines.add("peek");
+            } else if (size > 0 && roll < 8) {
+                lines.add("pop");
+                size--;
+            } else {
+                lines.add("push " + values.toString(i));
+                size++;
+            }
+        }
+        return lines;
+    }
+
+    public StackEngine getEngine() {
+        return engine;
+    }
+
+    public void start() {
+        lastTickNanos = System.nanoTime();
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    public boolean isPlaying() {
+        return timer.isRunning();
+    }
+
+    /** True once every line has run or the trace stopped at an unknown command. */
+    public boolean isFinished() {
+        return position == lines.size() || error != null;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getLength() {
+        return lines.size();
+    }
+
+    /** Operations the engine refused; the trace goes on past them. */
+    public int getRejected() {
+        return rejected;
+    }
+
+    /** Why the trace stopped early, or null. */
+    public String getError() {
+        return error;
+    }
+
+    /** Time between two operations at the playback rate. */
+    public long getOperationMillis() {
+        return (long) (1000 / rate);
+    }
+
+    /** Applies the operations due by nowNanos; called by the timer, once per frame. */
+    void tick(long nowNanos) {
+        owed = Math.min(owed + (nowNanos - lastTickNanos) / 1e9 * rate, Math.max(1, rate * MAX_BACKLOG_SECONDS));
+        lastTickNanos = nowNanos;
+        int applied = 0;
+        while (owed >= 1 && !isFinished()) {
+            // Checked every 64 operations; the engine calls are far cheaper than the clock
+            if ((applied & 63) == 63 && System.nanoTime() - nowNanos > FRAME_BUDGET_NANOS) break;
+            String line = lines.get(position);
+            try {
+                if (!cli.apply(line)) {
+                    error = "Trace stopped at an unknown command: " + line;
+                    break;
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                rejected++;
+                lastCommand = null;
+                lastValue = null;
+            }
+            position++;
+            owed--;
+            applied++;
+        }
+        if (isFinished()) timer.stop();
+        if (applied > 0 || isFinished()) {
+            boolean single = applied == 1;
+            listener.played(this, applied, single ? lastCommand : null, single ? lastValue : null);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.Arrays;
+
+/**
+ * Positions of every value in a stack, for search. A hash table maps each
+ * distinct value to its highest position, and each position links to the
+ * next lower one holding the same value, so the top-most occurrence is found
+ * in O(1) expected time and each further one in O(1). A push adds a link and
+ * a pop removes one, since the popped position is always the highest of its
+ * value.
+ *
+ * Like StackSummary, the index follows one model at a time and catches up
+ * lazily in sync(): positions the model went below since the last call
+ * (StackModel.getLowestSizeSince) are dropped, then pushes are added, so a
+ * pop followed by a push is caught even at the same size. Switching to
+ * another version of the same timeline keeps the positions the two versions
+ * share (VersionTimeline.getSharedSize). Elements are hashed and compared
+ * through StackModel (valueHash, sameValue), so Integer and Character stacks
+ * are indexed without boxing.
+ */
+public class ValueIndex {
+    private StackModel model;
+    private int size = 0;
+    // The model's shrink stamp as of the last catch-up
+    private long stamp;
+    // Per position: the value's hash, and the next lower position with the same value or -1
+    private int[] hashes = new int[0];
+    private int[] previous = new int[0];
+
+    // Open addressing with linear probing; a slot is free when its head is -1
+    private int[] heads;
+    private int[] headHashes;
+    private int[] counts;
+    private int used;
+
+    public ValueIndex() {
+        resetTable();
+    }
+
+    /** Drops positions that no longer match model: the popped ones, or those past what another model shares. */
+    public void stackChanged(StackModel model) {
+        int valid = this.model == null ? 0 : Math.min(size, this.model.getLowestSizeSince(stamp));
+        if (model != this.model && valid > 0) {
+            valid = Math.min(valid, VersionTimeline.getSharedSize(this.model, model));
+        }
+        this.model = model;
+        stamp = model.getShrinkStamp();
+        if (valid == 0) {
+            if (size > 0) resetTable();
+            size = 0;
+        }
+        while (size > valid) {
+            removeTop();
+        }
+    }
+
+    /** Brings the index up to date with model; costs only the elements pushed since the last call. */
+    public void sync(StackModel model) {
+        stackChanged(model);
+        int newSize = model.size();
+        if (newSize > hashes.length) {
+            int capacity = Math.max(newSize, hashes.length + (hashes.length >> 1));
+            hashes = Arrays.copyOf(hashes, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+        }
+        while (size < newSize) {
+            add(size, model.valueHash(size));
+            size++;
+        }
+    }
+
+    /** The highest position holding value, or -1 if there is none. */
+    public int findLast(Object value) {
+        int slot = find(value);
+        return slot < 0 ? -1 : heads[slot];
+    }
+
+    /** The next lower position holding the same value as position, or -1 if there is none. */
+    public int findPrevious(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + size);
+        }
+        return previous[position];
+    }
+
+    /** Occurrences of value. */
+    public int count(Object value) {
+        int slot = find(value);
+        return slot < 0 ? 0 : counts[slot];
+    }
+
+    private void add(int position, int hash) {
+        int slot = home(hash);
+        while (heads[slot] != -1 && !(headHashes[slot] == hash && model.sameValue(heads[slot], position))) {
+            slot = (slot + 1) & (heads.length - 1);
+        }
+        hashes[position] = hash;
+        if (heads[slot] == -1) {
+            previous[position] = -1;
+            headHashes[slot] = hash;
+            counts[slot] = 1;
+            used++;
+        } else {
+            previous[position] = heads[slot];
+            counts[slot]++;
+        }
+        heads[slot] = position;
+        if (used * 2 > heads.length) rehash(heads.length * 2);
+    }
+
+    // Removes position size - 1, which heads its value's chain
+    private void removeTop() {
+        int position = --size;
+        int slot = home(hashes[position]);
+        while (heads[slot] != position) {
+            slot = (slot + 1) & (heads.length - 1);
+        }
+        heads[slot] = previous[position];
+        if (--counts[slot] == 0) remove(slot);
+    }
+
+    private int find(Object value) {
+        int hash = value.hashCode();
+        int slot = home(hash);
+        while (heads[slot] != -1) {
+            if (headHashes[slot] == hash && model.valueEquals(heads[slot], value)) return slot;
+            slot = (slot + 1) & (heads.length - 1);
+        }
+        return -1;
+    }
+
+    private int home(int hash) {
+        return (hash * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(heads.length));
+    }
+
+    // Frees slot, moving later entries of its probe run back so every lookup still finds them
+    private void remove(int slot) {
+        int mask = heads.length - 1;
+        heads[slot] = -1;
+        used--;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (heads[next] == -1) break;
+            int home = home(headHashes[next]);
+            // Entries whose home lies cyclically in (slot, next] stay where they are
+            if (slot <= next ? (slot < home && home <= next) : (slot < home || home <= next)) continue;
+            heads[slot] = heads[next];
+            headHashes[slot] = headHashes[next];
+            counts[slot] = counts[next];
+            heads[next] = -1;
+            slot = next;
+        }
+    }
+
+    private void resetTable() {
+        heads = new int[16];
+        Arrays.fill(heads, -1);
+        headHashes = new int[16];
+        counts = new int[16];
+        used = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldHeads = heads;
+        int[] oldHashes = headHashes;
+        int[] oldCounts = counts;
+        heads = new int[capacity];
+        Arrays.fill(heads, -1);
+        headHashes = new int[capacity];
+        counts = new int[capacity];
+        for (int i = 0; i < oldHeads.length; i++) {
+            if (oldHeads[i] == -1) continue;
+            int slot = home(oldHashes[i]);
+            while (heads[slot] != -1) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            heads[slot] = oldHeads[i];
+            headHashes[slot] = oldHashes[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+}
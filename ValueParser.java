@@ -0,0 +1,363 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Bulk parser for batches and value files. Tokens are read in place from a
+ * CharSequence or a (memory-mapped) UTF-8 ByteBuffer and parsed straight
+ * into a staged StackModel: no token Strings for Integer and Character
+ * values, and no exceptions for bad tokens. Invalid tokens are collected
+ * into one report instead.
+ *
+ * Separators match the batch dialog: commas and whitespace, or commas and
+ * line breaks for String values (which are trimmed and may contain spaces).
+ */
+public class ValueParser {
+    private static final int MAX_REPORTED_ERRORS = 10;
+    private static final int MAX_REPORTED_TOKEN = 40;
+    // Files are mapped in windows of this size, split at a separator
+    private static final int MAP_WINDOW = 1 << 30;
+    // Bytes are copied out of the buffer in bulk, which is much faster than per-byte gets
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final StackModel values;
+    private final boolean stringValues;
+    private final int maxValues;
+    private final StringBuilder errors = new StringBuilder();
+    private long tokenCount = 0;
+    private long errorCount = 0;
+    private boolean overflow = false;
+
+    public ValueParser(String dataType) {
+        this(dataType, Integer.MAX_VALUE);
+    }
+
+    /** Parsing stops with isOverflow() set once more than maxValues values are found. */
+    public ValueParser(String dataType, int maxValues) {
+        this.values = StackModel.forType(dataType);
+        this.stringValues = dataType.equals("String");
+        this.maxValues = maxValues;
+    }
+
+    /** Values parsed so far, in input order. */
+    public StackModel getValues() {
+        return values;
+    }
+
+    public long getTokenCount() {
+        return tokenCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public boolean isOverflow() {
+        return overflow;
+    }
+
+    /** One message describing the first few invalid tokens, or null if there were none. */
+    public String getErrorReport() {
+        if (errorCount == 0) return null;
+        StringBuilder report = new StringBuilder();
+        report.append(errorCount).append(" invalid value(s), nothing was pushed:").append(errors);
+        if (errorCount > MAX_REPORTED_ERRORS) {
+            report.append("\n... and ").append(errorCount - MAX_REPORTED_ERRORS).append(" more");
+        }
+        return report.toString();
+    }
+
+    public ValueParser parse(CharSequence text) {
+        parse(new CharInput(text), true);
+        return this;
+    }
+
+    /** Parses the remaining bytes of buffer as UTF-8 without moving its position. */
+    public ValueParser parse(ByteBuffer buffer) {
+        ByteBuffer source = buffer.duplicate();
+        ByteInput in = new ByteInput(CHUNK_SIZE);
+        int carry = 0;
+        while (source.hasRemaining() && !overflow) {
+            int count = Math.min(in.bytes.length - carry, source.remaining());
+            source.get(in.bytes, carry, count);
+            in.length = carry + count;
+            int consumed = parse(in, !source.hasRemaining());
+            // An unfinished token at the end of the chunk is moved to the front
+            carry = in.length - consumed;
+            System.arraycopy(in.bytes, consumed, in.bytes, 0, carry);
+            if (carry == in.bytes.length) {
+                in.bytes = Arrays.copyOf(in.bytes, in.bytes.length * 2);
+            }
+        }
+        return this;
+    }
+
+    /** Maps file read-only and parses it as UTF-8. */
+    public ValueParser parse(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size && !overflow) {
+                long length = Math.min(MAP_WINDOW, size - position);
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (position + length < size) {
+                    // End the window after its last separator so no token is split
+                    int end = (int) length;
+                    while (end > 0 && !isSeparator(window.get(end - 1) & 0xFF)) end--;
+                    if (end > 0) length = end;
+                    window.limit((int) length);
+                }
+                parse(window);
+                position += length;
+            }
+        }
+        return this;
+    }
+
+    // ---- Tokenizer ----
+
+    /** Random access to the characters (or UTF-8 bytes) being parsed. */
+    private interface Input {
+        int length();
+
+        /** The char or byte at index; bytes of multi-byte sequences are never separators. */
+        int at(int index);
+
+        /** Number of UTF-16 chars in [start, end). */
+        int charCount(int start, int end);
+
+        /** The single char making up [start, end). */
+        char firstChar(int start, int end);
+
+        String substring(int start, int end);
+    }
+
+    private boolean isSeparator(int c) {
+        if (c == ',' || c == '\n' || c == '\r') return true;
+        return !stringValues && (c == ' ' || c == '\t' || c == '\f' || c == 0x0B);
+    }
+
+    /**
+     * Parses the tokens in input and returns how far it got. Unless last is
+     * set, a token running up to the end of input may continue in the next
+     * chunk, so it is left unconsumed.
+     */
+    private int parse(Input in, boolean last) {
+        if (in instanceof ByteInput && values instanceof StackModel.IntStack) {
+            return parseIntBytes((ByteInput) in, last);
+        }
+        int length = in.length();
+        int i = 0;
+        while (i < length) {
+            if (isSeparator(in.at(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && !isSeparator(in.at(i))) i++;
+            if (i == length && !last) return start;
+            int end = i;
+            if (stringValues) {
+                while (start < end && in.at(start) <= ' ') start++;
+                while (end > start && in.at(end - 1) <= ' ') end--;
+                if (start == end) continue;
+            }
+            if (values.size() >= maxValues) {
+                overflow = true;
+                return length;
+            }
+            tokenCount++;
+            parseToken(in, start, end);
+        }
+        return length;
+    }
+
+    // The common bulk case: scans and parses Integer tokens in one pass over the bytes
+    private int parseIntBytes(ByteInput in, boolean last) {
+        byte[] bytes = in.bytes;
+        int length = in.length;
+        StackModel.IntStack ints = (StackModel.IntStack) values;
+        int i = 0;
+        while (i < length) {
+            int c = bytes[i] & 0xFF;
+            if (isSeparator(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            boolean negative = c == '-';
+            if (negative || c == '+') i++;
+            int digitsStart = i;
+            int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+            int multiplyMin = limit / 10;
+            int result = 0;
+            boolean valid = true;
+            for (; i < length; i++) {
+                int b = bytes[i] & 0xFF;
+                int digit = b - '0';
+                if (digit >= 0 && digit <= 9) {
+                    if (valid && (result < multiplyMin || (result *= 10) < limit + digit)) {
+                        valid = false;
+                    }
+                    result -= digit;
+                } else if (isSeparator(b)) {
+                    break;
+                } else {
+                    valid = false;
+                }
+            }
+            if (i == length && !last) return start;
+            if (values.size() >= maxValues) {
+                overflow = true;
+                return length;
+            }
+            tokenCount++;
+            if (valid && i > digitsStart) {
+                ints.push(negative ? result : -result);
+            } else {
+                error(in, start, i, "Invalid integer format");
+            }
+        }
+        return length;
+    }
+
+    private void parseToken(Input in, int start, int end) {
+        if (values instanceof StackModel.IntStack) {
+            parseInt(in, start, end);
+        } else if (values instanceof StackModel.CharStack) {
+            if (in.charCount(start, end) != 1) {
+                error(in, start, end, "Please enter exactly one character");
+            } else {
+                ((StackModel.CharStack) values).push(in.firstChar(start, end));
+            }
+        } else {
+            if (in.charCount(start, end) > StackModel.MAX_STRING_LENGTH) {
+                error(in, start, end, "String too long (max " + StackModel.MAX_STRING_LENGTH + " chars)");
+            } else {
+                ((StackModel.StringStack) values).push(in.substring(start, end));
+            }
+        }
+    }
+
+    // Same rules as Integer.parseInt: optional sign, decimal digits, no overflow
+    private void parseInt(Input in, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        int first = in.at(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        if (i == end) {
+            error(in, start, end, "Invalid integer format");
+            return;
+        }
+        // Accumulate negatively so Integer.MIN_VALUE fits
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int multiplyMin = limit / 10;
+        int result = 0;
+        for (; i < end; i++) {
+            int digit = in.at(i) - '0';
+            if (digit < 0 || digit > 9 || result < multiplyMin) {
+                error(in, start, end, "Invalid integer format");
+                return;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                error(in, start, end, "Invalid integer format");
+                return;
+            }
+            result -= digit;
+        }
+        ((StackModel.IntStack) values).push(negative ? result : -result);
+    }
+
+    private void error(Input in, int start, int end, String message) {
+        if (++errorCount > MAX_REPORTED_ERRORS) return;
+        String token = in.substring(start, Math.min(end, start + MAX_REPORTED_TOKEN));
+        errors.append("\n#").append(tokenCount).append(" \"").append(token)
+                .append(end - start > MAX_REPORTED_TOKEN ? "...\"" : "\"").append(": ").append(message);
+    }
+
+    private static final class CharInput implements Input {
+        private final CharSequence text;
+
+        CharInput(CharSequence text) {
+            this.text = text;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public int at(int index) {
+            return text.charAt(index);
+        }
+
+        @Override
+        public int charCount(int start, int end) {
+            return end - start;
+        }
+
+        @Override
+        public char firstChar(int start, int end) {
+            return text.charAt(start);
+        }
+
+        @Override
+        public String substring(int start, int end) {
+            return text.subSequence(start, end).toString();
+        }
+    }
+
+    private static final class ByteInput implements Input {
+        byte[] bytes;
+        int length;
+
+        ByteInput(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public int at(int index) {
+            return bytes[index] & 0xFF;
+        }
+
+        // Every byte except continuation bytes starts a char; four-byte sequences need a surrogate pair
+        @Override
+        public int charCount(int start, int end) {
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                int b = bytes[i] & 0xFF;
+                if ((b & 0xC0) != 0x80) count += b >= 0xF0 ? 2 : 1;
+            }
+            return count;
+        }
+
+        @Override
+        public char firstChar(int start, int end) {
+            int b = at(start);
+            if (b < 0x80) return (char) b;
+            if (end - start < (b < 0xE0 ? 2 : 3)) return '\uFFFD';
+            if (b < 0xE0) return (char) (((b & 0x1F) << 6) | (at(start + 1) & 0x3F));
+            return (char) (((b & 0x0F) << 12) | ((at(start + 1) & 0x3F) << 6) | (at(start + 2) & 0x3F));
+        }
+
+        @Override
+        public String substring(int start, int end) {
+            return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        }
+    }
+}
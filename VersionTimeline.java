@@ -0,0 +1,438 @@
+/**
+ * Every version of the stack in a session, for undo, redo and scrubbing.
+ * Versions share structure: each one is the top node of an immutable linked
+ * stack, so a push adds one node, a pop or clear adds none, and any version
+ * is reached in O(1) by its number. Nodes carry jump pointers (Myers'
+ * applicative random-access stack), so the element at any depth is found in
+ * O(log n) steps and a version can be drawn as it is, without rebuilding it.
+ *
+ * Versions are numbered from 0 for the session's starting state. Only the
+ * newest ones are kept: at most maxVersions, and old versions are dropped
+ * while the versions kept have created more than maxNodes nodes.
+ *
+ * String nodes hold their text on the heap, so off-heap String stacks
+ * (StackModel.SlabStringStack) are not recorded at all: StackEngine keeps no
+ * versions for them, trading undo for the memory the slabs save.
+ */
+public class VersionTimeline {
+    /** One element of a version; never changed after creation. */
+    static final class Node {
+        final Node parent;
+        final Node jump;
+        final int depth;
+        final int value;    // Integer and Character values
+        final String text;  // String values
+
+        // The empty stack: its own parent and jump, so walks stop at depth 0
+        Node() {
+            this.parent = this;
+            this.jump = this;
+            this.depth = 0;
+            this.value = 0;
+            this.text = null;
+        }
+
+        Node(Node parent, int value, String text) {
+            this.parent = parent;
+            this.depth = parent.depth + 1;
+            // Jump twice as far as the parent does when its jumps form equal steps
+            Node j = parent.jump;
+            this.jump = parent.depth - j.depth == j.depth - j.jump.depth ? j.jump : parent;
+            this.value = value;
+            this.text = text;
+        }
+
+        /** The node at depth, an ancestor of this one, in O(log n) steps. */
+        Node ancestor(int depth) {
+            Node node = this;
+            while (node.depth > depth) {
+                node = node.jump.depth >= depth ? node.jump : node.parent;
+            }
+            return node;
+        }
+    }
+
+    static final Node EMPTY = new Node();
+
+    private final int maxVersions;
+    private final long maxNodes;
+    // Ring buffers indexed by version % length
+    private Node[] tops = new Node[16];
+    private String[] types = new String[16];
+    private long[] nodeTotals = new long[16];
+    private int first = 0;
+    private int last = -1;
+    private int current = -1;
+    private long nodesCreated = 0;
+
+    public VersionTimeline(int maxVersions, long maxNodes) {
+        if (maxVersions < 2) throw new IllegalArgumentException("Need room for at least 2 versions: " + maxVersions);
+        this.maxVersions = maxVersions;
+        this.maxNodes = maxNodes;
+    }
+
+    public int getFirstVersion() {
+        return first;
+    }
+
+    public int getLastVersion() {
+        return last;
+    }
+
+    public int getCurrentVersion() {
+        return current;
+    }
+
+    /** Makes version the current one; O(1). */
+    public void setCurrentVersion(int version) {
+        checkVersion(version);
+        current = version;
+    }
+
+    /** The data type of a version, or null if it is empty. */
+    public String getDataType(int version) {
+        checkVersion(version);
+        return types[version % types.length];
+    }
+
+    public int getSize(int version) {
+        checkVersion(version);
+        return tops[version % tops.length].depth;
+    }
+
+    // ---- Recording, after the live stack has changed ----
+
+    /** Records the state of model as the next version; O(n), meant for the first version. */
+    public void recordAll(StackModel model) {
+        Node top = EMPTY;
+        for (int i = 0; i < model.size(); i++) {
+            top = push(top, model, i);
+        }
+        record(top, model.isEmpty() ? null : model.getDataType());
+    }
+
+    /** Records the push of the top element of model. */
+    public void recordPush(StackModel model) {
+        record(push(currentTop(), model, model.size() - 1), model.getDataType());
+    }
+
+    /** Records the push of every element of staged. */
+    public void recordPushAll(StackModel staged) {
+        Node top = currentTop();
+        for (int i = 0; i < staged.size(); i++) {
+            top = push(top, staged, i);
+        }
+        record(top, staged.getDataType());
+    }
+
+    /** Records popping count elements. */
+    public void recordPop(int count) {
+        Node top = currentTop();
+        Node popped = top.ancestor(top.depth - count);
+        record(popped, popped == EMPTY ? null : types[current % types.length]);
+    }
+
+    public void recordClear() {
+        record(EMPTY, null);
+    }
+
+    private Node currentTop() {
+        return tops[current % tops.length];
+    }
+
+    private Node push(Node top, StackModel model, int index) {
+        nodesCreated++;
+        if (model instanceof StackModel.IntStack) {
+            return new Node(top, ((StackModel.IntStack) model).getInt(index), null);
+        } else if (model instanceof StackModel.CharStack) {
+            return new Node(top, ((StackModel.CharStack) model).getChar(index), null);
+        }
+        return new Node(top, 0, ((StackModel.StringStack) model).getString(index));
+    }
+
+    /** Drops the versions after the current one, as the next record would. */
+    public void dropRedo() {
+        for (int version = current + 1; version <= last; version++) {
+            tops[version % tops.length] = null;
+        }
+        last = current;
+    }
+
+    private void record(Node top, String dataType) {
+        // Versions after the current one can no longer be redone
+        dropRedo();
+        last = current + 1;
+        current = last;
+        if (last - first + 1 > maxVersions) {
+            dropFirst();
+        }
+        if (last - first + 1 > tops.length) {
+            grow();
+        }
+        int slot = last % tops.length;
+        tops[slot] = top;
+        types[slot] = dataType;
+        nodeTotals[slot] = nodesCreated;
+        while (first < last && nodesCreated - nodeTotals[first % nodeTotals.length] > maxNodes) {
+            dropFirst();
+        }
+    }
+
+    private void dropFirst() {
+        tops[first % tops.length] = null;
+        first++;
+    }
+
+    private void grow() {
+        int length = (int) Math.min(maxVersions, tops.length * 2L);
+        Node[] grownTops = new Node[length];
+        String[] grownTypes = new String[length];
+        long[] grownTotals = new long[length];
+        for (int version = first; version < last; version++) {
+            grownTops[version % length] = tops[version % tops.length];
+            grownTypes[version % length] = types[version % types.length];
+            grownTotals[version % length] = nodeTotals[version % nodeTotals.length];
+        }
+        tops = grownTops;
+        types = grownTypes;
+        nodeTotals = grownTotals;
+    }
+
+    private void checkVersion(int version) {
+        if (version < first || version > last) {
+            throw new IndexOutOfBoundsException("Version " + version + " not in " + first + ".." + last);
+        }
+    }
+
+    // ---- Reading versions ----
+
+    /** A read-only model showing version; creating it is O(1). */
+    public StackModel view(int version) {
+        return view(version, null);
+    }
+
+    /**
+     * A view of version made beside latest, the live model holding the last
+     * version (or null), so getSharedSize can compare the two.
+     */
+    public StackModel view(int version, StackModel latest) {
+        checkVersion(version);
+        String dataType = types[version % types.length];
+        return new VersionView(this, tops[version % tops.length], dataType == null ? "Integer" : dataType, latest);
+    }
+
+    /**
+     * How many bottom elements a and b have in common, when both are views of
+     * versions, or one is a view and the other the live model it was made
+     * beside; 0 when that can't be told. Costs O(log n) plus the number of
+     * elements the two don't share.
+     */
+    public static int getSharedSize(StackModel a, StackModel b) {
+        Node x = nodeOf(a, b);
+        Node y = nodeOf(b, a);
+        if (x == null || y == null) return 0;
+        int depth = Math.min(x.depth, y.depth);
+        x = x.ancestor(depth);
+        y = y.ancestor(depth);
+        while (x != y) {
+            x = x.parent;
+            y = y.parent;
+        }
+        return x.depth;
+    }
+
+    // The top node of model's elements, or null; a live model holds its timeline's last version
+    private static Node nodeOf(StackModel model, StackModel other) {
+        if (model instanceof VersionView) {
+            return ((VersionView) model).top;
+        }
+        if (other instanceof VersionView && ((VersionView) other).latest == model) {
+            VersionTimeline timeline = ((VersionView) other).timeline;
+            return timeline.tops[timeline.last % timeline.tops.length];
+        }
+        return null;
+    }
+
+    /** A mutable copy of version; O(n). */
+    public StackModel materialize(int version) {
+        checkVersion(version);
+        String dataType = types[version % types.length];
+        StackModel model = StackModel.forType(dataType == null ? "Integer" : dataType);
+        pushAbove(model, EMPTY, tops[version % tops.length]);
+        return model;
+    }
+
+    /**
+     * Turns latest, a model holding the last version, into version. Only the
+     * elements above the part the two versions share are popped and pushed,
+     * so going back a few steps costs a few steps however big the stack is.
+     * Returns latest, or a new model if version holds another data type.
+     */
+    public StackModel restore(StackModel latest, int version) {
+        checkVersion(version);
+        String dataType = types[version % types.length];
+        if (dataType != null && !dataType.equals(latest.getDataType())) {
+            return materialize(version);
+        }
+        Node target = tops[version % tops.length];
+        Node from = tops[last % tops.length];
+        int depth = Math.min(target.depth, from.depth);
+        Node shared = target.ancestor(depth);
+        for (Node other = from.ancestor(depth); other != shared; other = other.parent) {
+            shared = shared.parent;
+        }
+        latest.pop(latest.size() - shared.depth);
+        pushAbove(latest, shared, target);
+        return latest;
+    }
+
+    // Pushes the nodes from just above base up to top, bottom first
+    private static void pushAbove(StackModel model, Node base, Node top) {
+        Node[] nodes = new Node[top.depth - base.depth];
+        for (Node node = top; node != base; node = node.parent) {
+            nodes[node.depth - base.depth - 1] = node;
+        }
+        for (Node node : nodes) {
+            if (model instanceof StackModel.IntStack) {
+                ((StackModel.IntStack) model).push(node.value);
+            } else if (model instanceof StackModel.CharStack) {
+                ((StackModel.CharStack) model).push((char) node.value);
+            } else {
+                ((StackModel.StringStack) model).push(node.text);
+            }
+        }
+    }
+
+    /**
+     * A version seen through the StackModel interface. The nodes of a run
+     * of rows around the last one found are kept, so rows read in order, up
+     * or down, as painting and summaries do, are mostly one array read away
+     * and only every WINDOW / 2 rows cost an O(log n) walk. Views may be read
+     * from several threads at once.
+     */
+    private static final class VersionView extends StackModel {
+        private static final int WINDOW = 64;
+
+        /** Nodes at depths base to base + nodes.length - 1; never changed once built. */
+        private static final class Window {
+            final int base;
+            final Node[] nodes;
+
+            Window(int base, Node[] nodes) {
+                this.base = base;
+                this.nodes = nodes;
+            }
+        }
+
+        private final VersionTimeline timeline;
+        private final Node top;
+        private final String dataType;
+        private final StackModel latest;
+        private Window window;
+
+        VersionView(VersionTimeline timeline, Node top, String dataType, StackModel latest) {
+            this.timeline = timeline;
+            this.top = top;
+            this.dataType = dataType;
+            this.latest = latest;
+            this.size = top.depth;
+        }
+
+        // The window is read and replaced whole, so threads sharing a view each see a complete one
+        private Node node(int index) {
+            checkIndex(index);
+            int depth = index + 1;
+            Window w = window;
+            if (w == null || depth < w.base || depth >= w.base + w.nodes.length) {
+                // Centered on depth, so the next rows either way are in it too
+                int base = Math.max(1, depth - WINDOW / 2);
+                int high = Math.min(top.depth, base + WINDOW - 1);
+                Node[] nodes = new Node[high - base + 1];
+                Node node = top.ancestor(high);
+                for (int i = nodes.length - 1; i >= 0; i--) {
+                    nodes[i] = node;
+                    node = node.parent;
+                }
+                w = new Window(base, nodes);
+                window = w;
+            }
+            return w.nodes[depth - w.base];
+        }
+
+        @Override
+        public String getDataType() {
+            return dataType;
+        }
+
+        @Override
+        public void push(Object value) {
+            throw new UnsupportedOperationException("Versions are read-only");
+        }
+
+        @Override
+        public void pop() {
+            throw new UnsupportedOperationException("Versions are read-only");
+        }
+
+        @Override
+        public void pop(int count) {
+            throw new UnsupportedOperationException("Versions are read-only");
+        }
+
+        @Override
+        public void pushAll(StackModel other) {
+            throw new UnsupportedOperationException("Versions are read-only");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Versions are read-only");
+        }
+
+        @Override
+        public Object get(int index) {
+            Node node = node(index);
+            switch (dataType) {
+                case "Integer":
+                    return node.value;
+                case "Character":
+                    return (char) node.value;
+                default:
+                    return node.text;
+            }
+        }
+
+        @Override
+        public boolean valueEquals(int index, Object value) {
+            return get(index).equals(value);
+        }
+
+        @Override
+        public int getChars(int index, char[] dst) {
+            Node node = node(index);
+            switch (dataType) {
+                case "Integer":
+                    return intChars(node.value, dst);
+                case "Character":
+                    dst[0] = (char) node.value;
+                    return 1;
+                default:
+                    int length = Math.min(node.text.length(), dst.length);
+                    node.text.getChars(0, length, dst, 0);
+                    return length;
+            }
+        }
+
+        @Override
+        public int getMetric(int index) {
+            Node node = node(index);
+            return node.text == null ? node.value : node.text.length();
+        }
+
+        @Override
+        public int valueHash(int index) {
+            Node node = node(index);
+            return node.text == null ? node.value : node.text.hashCode();
+        }
+    }
+}